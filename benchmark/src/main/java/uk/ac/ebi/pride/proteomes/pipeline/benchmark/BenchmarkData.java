@@ -0,0 +1,164 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic rows of cluster_psm with the shapes found in production: unmodified peptides, heavily modified peptides
+ * and modifications with neutral losses. The data is generated with a fixed seed, so all the runs use the same rows.
+ */
+public final class BenchmarkData {
+
+    public enum Shape {
+        UNMODIFIED,
+        MODIFIED,
+        NEUTRAL_LOSS
+    }
+
+    public static final int SEQUENCE = 0;
+    public static final int MODS = 1;
+    public static final int TAXID = 2;
+    public static final int ASSAY_ACCESSION = 3;
+    public static final int PROJECT_ACCESSION = 4;
+    public static final int CLUSTER_ID = 5;
+
+    public static final String[] COLUMNS = {"sequence", "mods", "taxid", "assay_accession", "project_accession", "cluster_id"};
+
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    private static final int[] TAXIDS = {9606, 10090, 10116, 559292, 3702, 7227};
+
+    // Modifications already mapped to PRIDE Mod, as they are stored in cluster_psm
+    private static final String[] MAPPED_MODS = {"PRDMOD:4", "PRDMOD:35", "PRDMOD:21", "PRDMOD:1", "PRDMOD:7", "PRDMOD:28"};
+
+    // Modifications as they come from the cluster database, before the mapping
+    private static final String[] RAW_MODS = {"MOD:00397", "MOD:00719", "MOD:00696", "UNIMOD:4", "UNIMOD:35", "UNIMOD:21"};
+
+    private static final String[] NEUTRAL_LOSSES = {
+            "[MS, MS:1001524, fragment neutral loss, 97.976896]",
+            "[MS, MS:1001524, fragment neutral loss, 63.998285]"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param raw true for the modifications of the cluster database (MOD, UNIMOD), false for the mapped ones (PRDMOD)
+     * @return a column of modifications of the given shape (null for the unmodified peptides)
+     */
+    public static String mods(Shape shape, String sequence, boolean raw, Random random) {
+        String[] mods = raw ? RAW_MODS : MAPPED_MODS;
+        switch (shape) {
+            case UNMODIFIED:
+                return null;
+            case MODIFIED: {
+                int count = 3 + random.nextInt(4);
+                List<Integer> positions = positions(sequence.length(), count, random);
+                StringBuilder sb = new StringBuilder();
+                for (Integer position : positions) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(position).append('-').append(mods[random.nextInt(mods.length)]);
+                }
+                return sb.toString();
+            }
+            case NEUTRAL_LOSS: {
+                List<Integer> positions = positions(sequence.length(), 2, random);
+                String neutralLoss = NEUTRAL_LOSSES[random.nextInt(NEUTRAL_LOSSES.length)];
+                //A modification with neutral loss and a neutral loss on its own
+                return positions.get(0) + "-" + mods[random.nextInt(mods.length)] + "|" + neutralLoss
+                        + "," + positions.get(1) + "-" + neutralLoss;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    public static String sequence(Random random) {
+        int length = 7 + random.nextInt(19);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        //Tryptic peptide
+        sb.setCharAt(length - 1, random.nextBoolean() ? 'K' : 'R');
+        return sb.toString();
+    }
+
+    /**
+     * @return rows of cluster_psm of the given shape
+     */
+    public static Object[][] rows(Shape shape, int count, long seed) {
+        Random random = new Random(seed);
+        Object[][] rows = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = row(shape, sequence(random), random);
+        }
+        return rows;
+    }
+
+    /**
+     * @return rows of cluster_psm grouped by peptiform as the generator reads them, with groups of 1 to maxGroupSize rows
+     * (assays and clusters) for the same peptiform
+     */
+    public static Object[][] groupedRows(Shape shape, int count, int maxGroupSize, long seed) {
+        Random random = new Random(seed);
+        List<Object[]> rows = new ArrayList<Object[]>(count);
+        while (rows.size() < count) {
+            String sequence = sequence(random);
+            String mods = mods(shape, sequence, false, random);
+            int taxid = TAXIDS[random.nextInt(TAXIDS.length)];
+            int groupSize = 1 + random.nextInt(maxGroupSize);
+            for (int i = 0; i < groupSize && rows.size() < count; i++) {
+                Object[] row = row(shape, sequence, random);
+                row[MODS] = mods;
+                row[TAXID] = taxid;
+                rows.add(row);
+            }
+        }
+        return rows.toArray(new Object[rows.size()][]);
+    }
+
+    private static Object[] row(Shape shape, String sequence, Random random) {
+        int project = random.nextInt(5000);
+        return new Object[]{
+                sequence,
+                mods(shape, sequence, false, random),
+                TAXIDS[random.nextInt(TAXIDS.length)],
+                Integer.toString(10000 + project * 10 + random.nextInt(10)),
+                String.format("PXD%06d", project),
+                (long) random.nextInt(10000000)
+        };
+    }
+
+    private static List<Integer> positions(int length, int count, Random random) {
+        List<Integer> all = new ArrayList<Integer>(length);
+        for (int i = 1; i <= length; i++) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        List<Integer> positions = new ArrayList<Integer>(all.subList(0, Math.min(count, length)));
+        Collections.sort(positions);
+        return positions;
+    }
+
+    public static String[] strings(Object[][] rows, int column) {
+        String[] values = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            values[i] = (String) rows[i][column];
+        }
+        return values;
+    }
+
+    public static int columnIndex(String column) {
+        int index = Arrays.asList(COLUMNS).indexOf(column.toLowerCase());
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,22 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options (e.g. a regexp of the benchmarks to run, -f, -wi, -i) and
+ * always with the GC profiler, so the allocation rate (gc.alloc.rate.norm, bytes per operation) is reported together
+ * with the throughput.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.util.FileSystemUtils;
+import uk.ac.ebi.pride.proteomes.pipeline.listener.ClusterPsmWatermarkListener;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs proteomesDataProviderJob end to end on embedded H2 databases filled with synthetic cluster data, and reports
+ * the throughput of every step with its GC time and peak heap. The arguments are key=value pairs that override the
+ * properties of harness/harness.properties and prop/data-provider.properties, e.g.
+ *
+ * java -Xmx4g -cp target/benchmarks.jar uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness.DataProviderHarness
+ *      harness.rows=5000000 provider.generator.mode=PARTITIONED
+ */
+public class DataProviderHarness {
+
+    private static final String CONTEXT = "harness/harness-context.xml";
+
+    private static final String PROPERTIES = "harness/harness.properties";
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource(PROPERTIES));
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                throw new IllegalArgumentException("Arguments must be key=value pairs: " + arg);
+            }
+            //System properties take precedence over the property files of the contexts
+            System.setProperty(arg.substring(0, index), arg.substring(index + 1));
+            properties.setProperty(arg.substring(0, index), arg.substring(index + 1));
+        }
+
+        File dbDir = new File(properties.getProperty("harness.db.dir"));
+        FileSystemUtils.deleteRecursively(dbDir);
+        boolean backup = Boolean.parseBoolean(properties.getProperty("harness.backup"));
+
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(CONTEXT);
+        try {
+            SyntheticClusterDataGenerator generator = context.getBean(SyntheticClusterDataGenerator.class);
+            if (backup) {
+                generator.generate(context.getBean("clusterDataSource", DataSource.class), "proteomes");
+            } else {
+                generator.generate(context.getBean("proteomesDataSource", DataSource.class), "cluster_psm");
+            }
+
+            ResourceSampler sampler = new ResourceSampler(Long.parseLong(properties.getProperty("harness.sample.interval")));
+            JobLauncher jobLauncher = context.getBean(JobLauncher.class);
+            List<JobExecution> executions = new ArrayList<JobExecution>();
+
+            long start = System.currentTimeMillis();
+            sampler.start();
+            if (backup) {
+                executions.add(run(jobLauncher, context.getBean("harnessPsmBackupJob", Job.class)));
+            }
+            executions.add(run(jobLauncher, context.getBean("proteomesDataProviderJob", Job.class)));
+            sampler.stop();
+
+            report(System.out, executions, sampler, System.currentTimeMillis() - start);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static JobExecution run(JobLauncher jobLauncher, Job job) throws Exception {
+        JobParametersBuilder builder = new JobParametersBuilder();
+        builder.addDate("date", new Date());
+        builder.addString(ClusterPsmWatermarkListener.MODE_PARAMETER, "FULL");
+        return jobLauncher.run(job, builder.toJobParameters());
+    }
+
+    private static void report(PrintStream out, List<JobExecution> executions, ResourceSampler sampler, long elapsed) {
+        String format = "%-45s %10s %10s %10s %10s %9s %11s %11s %9s %10s%n";
+        out.println();
+        out.printf(format, "step", "read", "filtered", "written", "skipped", "seconds", "read/s", "written/s", "gc ms", "heap MB");
+        for (JobExecution execution : executions) {
+            for (StepExecution step : execution.getStepExecutions()) {
+                Date end = step.getEndTime() != null ? step.getEndTime() : new Date();
+                long millis = Math.max(1, end.getTime() - step.getStartTime().getTime());
+                long[] window = sampler.window(step.getStartTime(), end);
+                out.printf(format,
+                        step.getStepName(),
+                        step.getReadCount(),
+                        step.getFilterCount(),
+                        step.getWriteCount(),
+                        step.getSkipCount(),
+                        String.format("%.1f", millis / 1000.0),
+                        step.getReadCount() * 1000 / millis,
+                        step.getWriteCount() * 1000 / millis,
+                        window[0],
+                        window[1] >> 20);
+            }
+            out.println(execution.getJobInstance().getJobName() + ": " + execution.getExitStatus().getExitCode());
+        }
+        out.println();
+        out.printf("Total: %.1f s, GC %d ms, peak heap %d MB%n", elapsed / 1000.0, sampler.totalGcMillis(), sampler.peakHeap() >> 20);
+    }
+}
@@ -0,0 +1,18 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness;
+
+/**
+ * Oracle functions used by the SQL of the pipeline, registered in the embedded databases with CREATE ALIAS.
+ * They don't return the same values as in Oracle, only with the same range.
+ */
+public final class H2Functions {
+
+    private H2Functions() {
+    }
+
+    /**
+     * ORA_HASH(expr): hash in [0, 4294967295]
+     */
+    public static long oraHash(String value) {
+        return value == null ? 0 : value.hashCode() & 0xFFFFFFFFL;
+    }
+}
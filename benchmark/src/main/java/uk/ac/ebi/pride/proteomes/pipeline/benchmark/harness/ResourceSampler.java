@@ -0,0 +1,120 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Samples the used heap and the accumulated GC time of the JVM at a fixed interval, so they can be reported for any
+ * window of time (e.g. a step of the job). The peak heap of the whole run is taken from the memory pools, which don't
+ * miss the peaks between samples.
+ */
+public class ResourceSampler implements Runnable {
+
+    private final long intervalMillis;
+
+    private final List<long[]> samples = new ArrayList<long[]>();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    private long startGcMillis;
+
+    public ResourceSampler(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        startGcMillis = gcMillis();
+        running = true;
+        thread = new Thread(this, "resource-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+        sample();
+    }
+
+    public void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        samples.add(new long[]{System.currentTimeMillis(), gcMillis(), memory.getHeapMemoryUsage().getUsed()});
+    }
+
+    /**
+     * @return GC time in milliseconds and peak of used heap in bytes between the two dates
+     */
+    public synchronized long[] window(Date from, Date to) {
+        long fromMillis = from.getTime();
+        long toMillis = to != null ? to.getTime() : System.currentTimeMillis();
+
+        long gcFrom = -1;
+        long gcTo = 0;
+        long peak = 0;
+        for (long[] sample : samples) {
+            if (sample[0] < fromMillis) {
+                //Last sample before the window
+                gcFrom = sample[1];
+            } else if (sample[0] <= toMillis + intervalMillis) {
+                if (gcFrom < 0) {
+                    gcFrom = sample[1];
+                }
+                gcTo = sample[1];
+                peak = Math.max(peak, sample[2]);
+            }
+        }
+        return new long[]{Math.max(0, gcTo - Math.max(0, gcFrom)), peak};
+    }
+
+    /**
+     * @return GC time in milliseconds since the sampler was started
+     */
+    public long totalGcMillis() {
+        return gcMillis() - startGcMillis;
+    }
+
+    /**
+     * @return peak of the heap since the sampler was started (sum of the peaks of the heap pools)
+     */
+    public long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,106 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness;
+
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.FactoryBean;
+import uk.ac.ebi.pride.archive.repo.assay.service.AssayService;
+import uk.ac.ebi.pride.archive.repo.assay.service.AssaySummary;
+import uk.ac.ebi.pride.archive.repo.param.service.CvParamSummary;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * AssayService that replaces the PRIDE Archive database. The assays are generated from their accession (the same
+ * accession gives always the same cell types, tissues and diseases) and the assays of a project are the ones named by
+ * the {@link SyntheticClusterDataGenerator}. Only findByAccession and findAllByProjectAccession are supported, they
+ * are the only ones used by the enricher.
+ */
+public class StubAssayServiceFactoryBean implements FactoryBean<AssayService> {
+
+    private int assaysPerProject = 5;
+
+    // Approximate latency of the archive database in milliseconds (0 to ignore it)
+    private long latency = 0;
+
+    public AssayService getObject() {
+        return (AssayService) Proxy.newProxyInstance(AssayService.class.getClassLoader(), new Class<?>[]{AssayService.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("findByAccession".equals(name)) {
+                            sleep();
+                            return assay((String) args[0]);
+                        } else if ("findAllByProjectAccession".equals(name)) {
+                            sleep();
+                            int project = SyntheticClusterDataGenerator.project((String) args[0]);
+                            List<AssaySummary> assays = new ArrayList<AssaySummary>(assaysPerProject);
+                            for (int i = 0; i < assaysPerProject; i++) {
+                                assays.add(assay(SyntheticClusterDataGenerator.assayAccession(project, i)));
+                            }
+                            return assays;
+                        } else if ("toString".equals(name)) {
+                            return "StubAssayService";
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException("Not supported by the stub AssayService: " + method);
+                    }
+                });
+    }
+
+    private void sleep() throws InterruptedException {
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+    }
+
+    private static AssaySummary assay(String accession) {
+        Random random = new Random(accession.hashCode());
+        AssaySummary assay = new AssaySummary();
+        BeanWrapper wrapper = new BeanWrapperImpl(assay);
+        wrapper.setPropertyValue("accession", accession);
+        wrapper.setPropertyValue("cellTypes", terms(random, "CL", "CL:%07d", "cell type %d", 50));
+        wrapper.setPropertyValue("tissues", terms(random, "BTO", "BTO:%07d", "tissue %d", 100));
+        wrapper.setPropertyValue("diseases", terms(random, "DOID", "DOID:%d", "disease %d", 30));
+        return assay;
+    }
+
+    private static Collection<CvParamSummary> terms(Random random, String cvLabel, String accession, String name, int pool) {
+        int count = random.nextInt(3);
+        List<CvParamSummary> terms = new ArrayList<CvParamSummary>(count);
+        for (int i = 0; i < count; i++) {
+            int term = random.nextInt(pool);
+            CvParamSummary summary = new CvParamSummary();
+            BeanWrapper wrapper = new BeanWrapperImpl(summary);
+            wrapper.setPropertyValue("cvLabel", cvLabel);
+            wrapper.setPropertyValue("accession", String.format(accession, term));
+            wrapper.setPropertyValue("name", String.format(name, term));
+            terms.add(summary);
+        }
+        return terms;
+    }
+
+    public Class<?> getObjectType() {
+        return AssayService.class;
+    }
+
+    public boolean isSingleton() {
+        return true;
+    }
+
+    public void setAssaysPerProject(int assaysPerProject) {
+        this.assaysPerProject = assaysPerProject;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+}
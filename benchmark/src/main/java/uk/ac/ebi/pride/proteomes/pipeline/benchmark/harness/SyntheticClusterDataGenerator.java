@@ -0,0 +1,190 @@
+package uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fills a table with the columns of cluster_psm (sequence, mods, taxid, assay_accession, project_accession,
+ * cluster_id) with synthetic PSMs.
+ *
+ * The PSMs are drawn from a vocabulary of peptiforms (sequence, modifications and species) following a Zipf
+ * distribution, so a few peptiforms are identified in a lot of assays and most of them only once, as in the cluster
+ * data. The modifications follow the configured mix of unmodified, modified and neutral loss peptides. The assays
+ * are named after their project (see {@link #assayAccession(int, int)}) so the stub AssayService can return the
+ * assays of a project without the generated data.
+ */
+public class SyntheticClusterDataGenerator {
+
+    private static final Log log = LogFactory.getLog(SyntheticClusterDataGenerator.class);
+
+    private static final int BATCH_SIZE = 10000;
+
+    private static final int[] TAXIDS = {9606, 9606, 9606, 9606, 10090, 10090, 10116, 559292, 3702, 7227};
+
+    private long rows = 1000000;
+
+    private int peptiforms = 50000;
+
+    private double zipfExponent = 1.0;
+
+    private int projects = 2000;
+
+    private int assaysPerProject = 5;
+
+    private int clusters = 100000;
+
+    private double modifiedRatio = 0.3;
+
+    private double neutralLossRatio = 0.05;
+
+    // true for the modifications of the cluster database (MOD, UNIMOD), false for the ones mapped to PRIDE Mod
+    private boolean rawModifications = false;
+
+    private long seed = 42L;
+
+    public static String projectAccession(int project) {
+        return String.format("PXD%06d", project);
+    }
+
+    public static String assayAccession(int project, int assay) {
+        return Integer.toString(100000 + project * 100 + assay);
+    }
+
+    /**
+     * @return the number of the project of a project accession generated by {@link #projectAccession(int)}
+     */
+    public static int project(String projectAccession) {
+        return Integer.parseInt(projectAccession.substring(3));
+    }
+
+    public long generate(DataSource dataSource, String table) {
+        final Random random = new Random(seed);
+
+        long start = System.currentTimeMillis();
+        final Object[][] vocabulary = vocabulary(random);
+        final Zipf zipf = new Zipf(vocabulary.length, zipfExponent);
+        log.info("Generated a vocabulary of " + vocabulary.length + " peptiforms in " + (System.currentTimeMillis() - start) + " ms");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        String sql = "insert into " + table
+                + " (sequence, mods, taxid, assay_accession, project_accession, cluster_id) values (?, ?, ?, ?, ?, ?)";
+
+        for (long from = 0; from < rows; from += BATCH_SIZE) {
+            final int size = (int) Math.min(BATCH_SIZE, rows - from);
+            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Object[] peptiform = vocabulary[zipf.sample(random)];
+                    int project = random.nextInt(projects);
+                    ps.setString(1, (String) peptiform[BenchmarkData.SEQUENCE]);
+                    ps.setString(2, (String) peptiform[BenchmarkData.MODS]);
+                    ps.setInt(3, (Integer) peptiform[BenchmarkData.TAXID]);
+                    ps.setString(4, assayAccession(project, random.nextInt(assaysPerProject)));
+                    ps.setString(5, projectAccession(project));
+                    ps.setLong(6, random.nextInt(clusters));
+                }
+
+                public int getBatchSize() {
+                    return size;
+                }
+            });
+            if ((from / BATCH_SIZE) % 100 == 99) {
+                log.info("Generated " + (from + size) + " rows of " + rows);
+            }
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Generated " + rows + " rows in " + table + " in " + elapsed + " ms (" + (rows * 1000 / elapsed) + " rows/s)");
+        return rows;
+    }
+
+    private Object[][] vocabulary(Random random) {
+        List<Object[]> vocabulary = new ArrayList<Object[]>(peptiforms);
+        for (int i = 0; i < peptiforms; i++) {
+            String sequence = BenchmarkData.sequence(random);
+            double shape = random.nextDouble();
+            BenchmarkData.Shape modifications = shape < neutralLossRatio ? BenchmarkData.Shape.NEUTRAL_LOSS
+                    : shape < neutralLossRatio + modifiedRatio ? BenchmarkData.Shape.MODIFIED
+                    : BenchmarkData.Shape.UNMODIFIED;
+            vocabulary.add(new Object[]{
+                    sequence,
+                    BenchmarkData.mods(modifications, sequence, rawModifications, random),
+                    TAXIDS[random.nextInt(TAXIDS.length)]
+            });
+        }
+        return vocabulary.toArray(new Object[vocabulary.size()][]);
+    }
+
+    /**
+     * Zipf distribution over the ranks 0..n-1, sampled with a binary search over the cumulative weights
+     */
+    static class Zipf {
+
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1.0 / Math.pow(k + 1, exponent);
+                cumulative[k] = total;
+            }
+        }
+
+        int sample(Random random) {
+            double value = random.nextDouble() * cumulative[cumulative.length - 1];
+            int index = Arrays.binarySearch(cumulative, value);
+            return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+        }
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    public void setPeptiforms(int peptiforms) {
+        this.peptiforms = peptiforms;
+    }
+
+    public void setZipfExponent(double zipfExponent) {
+        this.zipfExponent = zipfExponent;
+    }
+
+    public void setProjects(int projects) {
+        this.projects = projects;
+    }
+
+    public void setAssaysPerProject(int assaysPerProject) {
+        this.assaysPerProject = assaysPerProject;
+    }
+
+    public void setClusters(int clusters) {
+        this.clusters = clusters;
+    }
+
+    public void setModifiedRatio(double modifiedRatio) {
+        this.modifiedRatio = modifiedRatio;
+    }
+
+    public void setNeutralLossRatio(double neutralLossRatio) {
+        this.neutralLossRatio = neutralLossRatio;
+    }
+
+    public void setRawModifications(boolean rawModifications) {
+        this.rawModifications = rawModifications;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,60 @@
+package uk.ac.ebi.pride.proteomes.pipeline.mods;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and formatting of a single modification (one element of the mods column). The unmodified peptides have no
+ * modifications to parse, so only the modified shapes are measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModificationBenchmark {
+
+    private static final int POOL_SIZE = 1024;
+
+    @Param({"MODIFIED", "NEUTRAL_LOSS"})
+    public BenchmarkData.Shape shape;
+
+    private String[] mods;
+
+    private Modification[] parsed;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        List<String> all = new ArrayList<String>();
+        while (all.size() < POOL_SIZE) {
+            String column = BenchmarkData.mods(shape, BenchmarkData.sequence(random), false, random);
+            Collections.addAll(all, ModificationParser.splitModifications(column));
+        }
+        mods = all.subList(0, POOL_SIZE).toArray(new String[POOL_SIZE]);
+
+        parsed = new Modification[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            parsed[i] = Modification.parseModification(mods[i]);
+        }
+    }
+
+    @Benchmark
+    public Modification parseModification() {
+        return Modification.parseModification(mods[next++ & (POOL_SIZE - 1)]);
+    }
+
+    @Benchmark
+    public String modificationToString() {
+        return parsed[next++ & (POOL_SIZE - 1)].toString();
+    }
+}
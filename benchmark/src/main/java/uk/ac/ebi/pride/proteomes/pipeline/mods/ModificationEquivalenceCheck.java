@@ -0,0 +1,117 @@
+package uk.ac.ebi.pride.proteomes.pipeline.mods;
+
+import uk.ac.ebi.pride.jmztab.model.CVParam;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static uk.ac.ebi.pride.jmztab.model.MZTabUtils.translateCommaToTab;
+
+/**
+ * Checks that the single pass parser gives the same modifications as the mzTab based one
+ * ({@link Modification#parseModificationWithPatterns(String)}, with the positions parsed by parseModificationPosition)
+ * for a corpus of modification columns: the split of the column, and the type, accession, neutral loss, positions and
+ * position params of every modification (or the same exception). The corpus is mods/mod-columns.txt, or the file given
+ * as argument (e.g. a dump of the mods column of cluster_psm), plus the synthetic columns of the benchmarks.
+ *
+ *     java -cp target/benchmarks.jar uk.ac.ebi.pride.proteomes.pipeline.mods.ModificationEquivalenceCheck [file]
+ *
+ * It exits with status 1 if any modification differs.
+ */
+public class ModificationEquivalenceCheck {
+
+    private static final String CORPUS = "/mods/mod-columns.txt";
+
+    private static final int SYNTHETIC_COLUMNS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> columns = args.length > 0 ? read(new FileInputStream(args[0])) : read(
+                ModificationEquivalenceCheck.class.getResourceAsStream(CORPUS));
+        Random random = new Random(42L);
+        for (int i = 0; i < SYNTHETIC_COLUMNS; i++) {
+            BenchmarkData.Shape shape = i % 2 == 0 ? BenchmarkData.Shape.MODIFIED : BenchmarkData.Shape.NEUTRAL_LOSS;
+            columns.add(BenchmarkData.mods(shape, BenchmarkData.sequence(random), i % 4 < 2, random));
+        }
+
+        int modifications = 0;
+        int differences = 0;
+        for (String column : columns) {
+            String[] expected = translateCommaToTab(column).split(",");
+            String[] actual = ModificationParser.splitModifications(column);
+            if (!Arrays.equals(expected, actual)) {
+                differences++;
+                System.out.println("Column [" + column + "] split as " + Arrays.toString(actual)
+                        + " instead of " + Arrays.toString(expected));
+                continue;
+            }
+            for (String mod : expected) {
+                modifications++;
+                String old = describe(mod, false);
+                String parsed = describe(mod, true);
+                if (!old.equals(parsed)) {
+                    differences++;
+                    System.out.println("Modification [" + mod + "] of [" + column + "]:\n    patterns: " + old
+                            + "\n    parser:   " + parsed);
+                }
+            }
+        }
+
+        System.out.println(columns.size() + " columns, " + modifications + " modifications, " + differences + " differences");
+        if (differences > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String describe(String mod, boolean parser) {
+        Modification modification;
+        try {
+            modification = parser ? Modification.parseModification(mod) : Modification.parseModificationWithPatterns(mod);
+        } catch (RuntimeException e) {
+            return "exception " + e.getClass().getName();
+        }
+        if (modification == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("type=").append(modification.getType())
+                .append(" accession=").append(modification.getAccession())
+                .append(" neutralLoss=").append(describe(modification.getNeutralLoss()))
+                .append(" positions={");
+        for (Map.Entry<Integer, CVParam> position : modification.getPositionMap().entrySet()) {
+            builder.append(position.getKey()).append('=').append(describe(position.getValue())).append(';');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String describe(CVParam param) {
+        if (param == null) {
+            return "null";
+        }
+        return "[" + param.getCvLabel() + "|" + param.getAccession() + "|" + param.getName() + "|" + param.getValue() + "]";
+    }
+
+    private static List<String> read(InputStream in) throws IOException {
+        List<String> columns = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    columns.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,52 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.pridemod.ModReader;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+import uk.ac.ebi.pride.proteomes.pipeline.mods.ModificationParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a raw modification of the cluster database (MOD, UNIMOD) to PRIDE Mod, without the mapping cache.
+ * The ontologies bundled with pride-mod are loaded before the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClusterPsmItemMapModsBenchmark {
+
+    private static final int POOL_SIZE = 1024;
+
+    @Param({"MODIFIED", "NEUTRAL_LOSS"})
+    public BenchmarkData.Shape shape;
+
+    private String[] mods;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        ModReader.getInstance();
+
+        Random random = new Random(42L);
+        List<String> all = new ArrayList<String>();
+        while (all.size() < POOL_SIZE) {
+            String column = BenchmarkData.mods(shape, BenchmarkData.sequence(random), true, random);
+            Collections.addAll(all, ModificationParser.splitModifications(column));
+        }
+        mods = all.subList(0, POOL_SIZE).toArray(new String[POOL_SIZE]);
+    }
+
+    @Benchmark
+    public String mapModifications() {
+        return ClusterPsmItemMapMods.mapModifications(mods[next++ & (POOL_SIZE - 1)]);
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationLocation;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.SyntheticResultSet;
+
+import java.sql.SQLException;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a cluster_psm row to a Peptiform. It is in the package of the mapper to reach parseModifications.
+ * Every operation maps one row, the rows are taken in turn from a pool of synthetic rows of the given shape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeptiformClusterRowMapperBenchmark {
+
+    private static final int POOL_SIZE = 1024;
+
+    @Param({"UNMODIFIED", "MODIFIED", "NEUTRAL_LOSS"})
+    public BenchmarkData.Shape shape;
+
+    private final PeptiformClusterRowMapper mapper = new PeptiformClusterRowMapper();
+
+    private final SyntheticResultSet resultSet = new SyntheticResultSet();
+
+    private Object[][] rows;
+
+    private String[] mods;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        rows = BenchmarkData.rows(shape, POOL_SIZE, 42L);
+        mods = BenchmarkData.strings(rows, BenchmarkData.MODS);
+    }
+
+    @Benchmark
+    public Peptiform mapRow() throws SQLException {
+        int row = next++ & (POOL_SIZE - 1);
+        return mapper.mapRow(resultSet.on(rows[row]), row);
+    }
+
+    @Benchmark
+    public Peptiform parseModifications() {
+        Peptiform peptiform = new Peptiform();
+        peptiform.setModificationLocations(new TreeSet<ModificationLocation>());
+        PeptiformClusterRowMapper.parseModifications(peptiform, mods[next++ & (POOL_SIZE - 1)]);
+        return peptiform;
+    }
+}
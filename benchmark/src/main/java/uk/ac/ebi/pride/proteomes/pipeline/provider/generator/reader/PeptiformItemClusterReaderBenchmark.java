@@ -0,0 +1,82 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.SyntheticResultSet;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper.PeptiformClusterRowMapper;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grouping of the rows of the same peptiform done by the PeptiformItemClusterReader, over an in-memory delegate.
+ * An operation is one row, the peptiforms are mapped once in the setup and reused by every invocation (the assays
+ * and clusters are then already in the grouped peptiform, so the sets don't grow between invocations).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeptiformItemClusterReaderBenchmark {
+
+    private static final int ROWS = 10000;
+
+    @Param({"UNMODIFIED", "MODIFIED", "NEUTRAL_LOSS"})
+    public BenchmarkData.Shape shape;
+
+    // Maximum number of rows (assays and clusters) of the same peptiform
+    @Param({"1", "20"})
+    public int maxGroupSize;
+
+    private final InMemoryReader delegate = new InMemoryReader();
+
+    private final PeptiformItemClusterReader reader = new PeptiformItemClusterReader();
+
+    @Setup
+    public void setup() throws SQLException {
+        Object[][] rows = BenchmarkData.groupedRows(shape, ROWS, maxGroupSize, 42L);
+        PeptiformClusterRowMapper mapper = new PeptiformClusterRowMapper();
+        SyntheticResultSet resultSet = new SyntheticResultSet();
+        delegate.items = new Peptiform[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            delegate.items[i] = mapper.mapRow(resultSet.on(rows[i]), i);
+        }
+        reader.setDelegate(delegate);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void group(Blackhole blackhole) throws Exception {
+        delegate.next = 0;
+        Peptiform peptiform;
+        while ((peptiform = reader.read()) != null) {
+            blackhole.consume(peptiform);
+        }
+    }
+
+    private static class InMemoryReader implements ItemStreamReader<Peptiform> {
+
+        private Peptiform[] items;
+
+        private int next;
+
+        public Peptiform read() {
+            return next < items.length ? items[next++] : null;
+        }
+
+        public void open(ExecutionContext executionContext) {
+        }
+
+        public void update(ExecutionContext executionContext) {
+        }
+
+        public void close() {
+        }
+    }
+}
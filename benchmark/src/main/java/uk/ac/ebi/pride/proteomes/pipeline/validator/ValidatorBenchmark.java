@@ -0,0 +1,181 @@
+package uk.ac.ebi.pride.proteomes.pipeline.validator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.validator.ValidationException;
+import org.springframework.batch.item.validator.Validator;
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.benchmark.BenchmarkData;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper.ClusterPsmIdentityMap;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper.PeptiformClusterRowMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the generated peptiforms with the reflective validator (the default) and the fast one. The peptiforms
+ * are grouped from synthetic rows with canonical assays and clusters, as the generator builds them. An operation is
+ * one row (an assay and a cluster of a peptiform), so the group sizes can be compared. The validations run inside a step execution, so after the first invocation the fast validator finds the
+ * assays and clusters already validated, as in a long step.
+ *
+ * Before measuring the fast validator its results are compared with the ones of the reflective validator for the same
+ * peptiforms (and for some with an assay without project), the setup fails if any of them differs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidatorBenchmark {
+
+    private static final int ROWS = 20000;
+
+    @Param({"reflective", "fast"})
+    public String mode;
+
+    // Maximum number of rows (assays and clusters) of the same peptiform
+    @Param({"1", "20", "200"})
+    public int maxGroupSize;
+
+    private Peptiform[] peptiforms;
+
+    private Validator<Peptiform> validator;
+
+    private FastBeanValidationValidator<Peptiform> fastValidator;
+
+    @Setup
+    public void setup() throws Exception {
+        Object[][] rows = BenchmarkData.groupedRows(BenchmarkData.Shape.MODIFIED, ROWS, maxGroupSize, 42L);
+        peptiforms = group(rows);
+
+        if ("reflective".equals(mode)) {
+            validator = new BeanValidationValidator<Peptiform>();
+        } else {
+            fastValidator = new FastBeanValidationValidator<Peptiform>();
+            fastValidator.setTypes(Arrays.<Class<?>>asList(Peptiform.class, Assay.class, Cluster.class));
+            fastValidator.afterPropertiesSet();
+            validator = fastValidator;
+            compare(new BeanValidationValidator<Peptiform>(), fastValidator);
+        }
+
+        StepSynchronizationManager.register(new StepExecution("validatorBenchmark", new JobExecution(1L), 1L));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        StepSynchronizationManager.close();
+        if (fastValidator != null) {
+            fastValidator.destroy();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void validate(Blackhole blackhole) throws Exception {
+        for (Peptiform peptiform : peptiforms) {
+            validator.validate(peptiform);
+        }
+        blackhole.consume(peptiforms);
+    }
+
+    /**
+     * Validates the peptiforms with both validators, outside of a step and in a step where the assays and clusters
+     * are already validated, and fails if the results differ
+     */
+    private void compare(Validator<Peptiform> reflective, Validator<Peptiform> fast) {
+        List<Peptiform> items = new ArrayList<Peptiform>(Arrays.asList(peptiforms));
+        for (int i = 0; i < peptiforms.length; i += 50) {
+            Peptiform invalid = PeptiformClusterRowMapper.createPeptiform(peptiforms[i].getSequence(),
+                    peptiforms[i].getTaxid(), null);
+            invalid.getAssays().addAll(peptiforms[i].getAssays());
+            //Without project accession
+            Assay assay = new Assay();
+            assay.setAssayAccession("invalid" + i);
+            assay.setTaxid(peptiforms[i].getTaxid());
+            invalid.getAssays().add(assay);
+            invalid.getClusters().addAll(peptiforms[i].getClusters());
+            items.add(invalid);
+        }
+
+        int invalid = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                StepSynchronizationManager.register(new StepExecution("validatorComparison", new JobExecution(1L), 0L));
+            }
+            try {
+                for (Peptiform item : items) {
+                    List<String> expected = violations(reflective, item);
+                    List<String> actual = violations(fast, item);
+                    if (!expected.equals(actual)) {
+                        throw new IllegalStateException("The fast validator found " + actual + " instead of "
+                                + expected + " for " + item);
+                    }
+                    if (!expected.isEmpty()) {
+                        invalid++;
+                    }
+                }
+            } finally {
+                if (pass == 1) {
+                    StepSynchronizationManager.close();
+                }
+            }
+        }
+        System.out.println("Both validators agree on " + items.size() + " peptiforms (" + invalid / 2 + " invalid)");
+    }
+
+    /**
+     * @return the sorted violations of the item (they come from a set, in any order)
+     */
+    private static List<String> violations(Validator<Peptiform> validator, Peptiform item) {
+        try {
+            validator.validate(item);
+            return Collections.emptyList();
+        } catch (ValidationException e) {
+            String prefix = "Validation failed for " + item + ": ";
+            List<String> violations = new ArrayList<String>(
+                    Arrays.asList(e.getMessage().substring(prefix.length()).split(", ")));
+            Collections.sort(violations);
+            return violations;
+        }
+    }
+
+    /**
+     * @return the peptiforms of the rows, sharing the instances of the assays and clusters
+     */
+    private static Peptiform[] group(Object[][] rows) {
+        ClusterPsmIdentityMap identityMap = new ClusterPsmIdentityMap();
+        Peptiform[] grouped = new Peptiform[rows.length];
+        int count = 0;
+        Object[] first = null;
+        Set<Assay> assays = null;
+        Set<Cluster> clusters = null;
+        for (Object[] row : rows) {
+            if (first == null || !first[BenchmarkData.SEQUENCE].equals(row[BenchmarkData.SEQUENCE])
+                    || !first[BenchmarkData.TAXID].equals(row[BenchmarkData.TAXID])) {
+                first = row;
+                Peptiform peptiform = PeptiformClusterRowMapper.createPeptiform((String) row[BenchmarkData.SEQUENCE],
+                        (Integer) row[BenchmarkData.TAXID], (String) row[BenchmarkData.MODS]);
+                assays = new HashSet<Assay>();
+                clusters = new HashSet<Cluster>();
+                peptiform.setAssays(assays);
+                peptiform.setClusters(clusters);
+                grouped[count++] = peptiform;
+            }
+            assays.add(identityMap.assay((String) row[BenchmarkData.ASSAY_ACCESSION],
+                    (String) row[BenchmarkData.PROJECT_ACCESSION], (Integer) row[BenchmarkData.TAXID]));
+            clusters.add(identityMap.cluster((Long) row[BenchmarkData.CLUSTER_ID]));
+        }
+        return Arrays.copyOf(grouped, count);
+    }
+}
@@ -0,0 +1,10 @@
+-- Table of the cluster database read by the PSM backup step
+
+create table if not exists proteomes (
+    sequence varchar(255) not null,
+    mods varchar(2000),
+    taxid int not null,
+    assay_accession varchar(255) not null,
+    project_accession varchar(255) not null,
+    cluster_id bigint not null
+);
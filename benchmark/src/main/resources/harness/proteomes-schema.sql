@@ -0,0 +1,19 @@
+-- Tables of the proteomes database that are not mapped by db-core (the entities are created by hibernate)
+
+create alias if not exists ora_hash for "uk.ac.ebi.pride.proteomes.pipeline.benchmark.harness.H2Functions.oraHash";
+
+create sequence if not exists peptide_seq;
+
+create sequence if not exists cluster_psm_seq;
+
+create table if not exists cluster_psm (
+    psm_id bigint auto_increment primary key,
+    sequence varchar(255) not null,
+    mods varchar(2000),
+    taxid int not null,
+    assay_accession varchar(255) not null,
+    project_accession varchar(255) not null,
+    cluster_id bigint not null
+);
+
+create index if not exists cluster_psm_sequence_idx on cluster_psm (sequence, taxid, mods);
@@ -15,9 +15,14 @@ JOB_EMAIL="ntoro@ebi.ac.uk"
 printUsage() {
     echo "Description: Data provider pipeline extracts all the peptiforms from the PRIDE Cluster resource and write them in the PRIDE Proteomes pipeline after and enrichment phase."
     echo ""
-    echo "Usage: ./runDataProvider.sh [-e|--email] "
+    echo "Usage: ./runDataProvider.sh [-e|--email] [-i|--incremental [watermark]] [-s|--snapshot] [-r|--restart]"
     echo "     Example: ./runDataProvider.sh -e ntoro@ebi.ac.uk"
+    echo "     Example: ./runDataProvider.sh -i"
+    echo "     Example: ./runDataProvider.sh -r"
     echo "     (optional) email   :  Email to send LSF notification"
+    echo "     (optional) incremental   :  Only process the cluster_psm rows loaded after the last completed run (or after the given watermark)"
+    echo "     (optional) snapshot   :  Export cluster_psm to the binary snapshot (provider.snapshot.file) instead of running the pipeline"
+    echo "     (optional) restart   :  Restart the last run if it failed or was stopped, from the checkpoints of its steps"
 }
 
 
@@ -28,6 +33,21 @@ while [ "$1" != "" ]; do
         shift
         JOB_EMAIL=$1
         ;;
+      "-i" | "--incremental")
+        JOB_PARAMETERS="INCREMENTAL"
+        case $2 in
+          ''|-*) ;;
+          *) shift
+             JOB_PARAMETERS="${JOB_PARAMETERS} $1"
+             ;;
+        esac
+        ;;
+      "-s" | "--snapshot")
+        JOB_PARAMETERS="SNAPSHOT"
+        ;;
+      "-r" | "--restart")
+        JOB_PARAMETERS="RESTART"
+        ;;
     esac
     shift
 done
@@ -35,4 +55,4 @@ done
 
 ##### RUN it on the production LSF cluster #####
 ##### NOTE: you can change LSF group to modify the number of jobs can be run concurrently #####
-bsub -e error.txt -o output.txt -M ${MEMORY_LIMIT} -q production-rh6 -J ${JOB_NAME} -N -u ${JOB_EMAIL} java -jar ${project.build.finalName}.jar
+bsub -e error.txt -o output.txt -M ${MEMORY_LIMIT} -q production-rh6 -J ${JOB_NAME} -N -u ${JOB_EMAIL} java -jar ${project.build.finalName}.jar ${JOB_PARAMETERS}
@@ -3,29 +3,87 @@ package uk.ac.ebi.pride.proteomes.pipeline;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
 import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
 import org.springframework.batch.core.repository.JobRestartException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import uk.ac.ebi.pride.proteomes.pipeline.listener.ClusterPsmWatermarkListener;
 
 import java.util.Date;
+import java.util.List;
 
+/**
+ * Launches the data provider job. The optional arguments are the mode (FULL by default or INCREMENTAL) and, in
+ * incremental mode, the watermark to start from instead of the one of the last completed run. The mode SNAPSHOT
+ * launches the export of cluster_psm to a binary snapshot instead. The mode RESTART restarts the last execution of
+ * the pipeline if it failed or was stopped, with the same parameters, so the steps resume from their checkpoints.
+ */
 public class DataProviderApp {
 
     private static final Log log = LogFactory.getLog(DataProviderApp.class);
 
+    private static final String SNAPSHOT_MODE = "SNAPSHOT";
+
+    private static final String RESTART_MODE = "RESTART";
+
+    private static final String PIPELINE_JOB = "proteomesDataProviderJob";
+
     public static void main(String[] args) throws JobParametersInvalidException, JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
         ApplicationContext context = new ClassPathXmlApplicationContext("launch-data-provider-job.xml");
         JobLauncher jobLauncher = context.getBean(JobLauncher.class);
-        Job job = context.getBean("proteomesDataProviderJob", Job.class);
-        JobParametersBuilder builder = new JobParametersBuilder();
-        builder.addDate("date", new Date());
-        JobExecution jobExecution = jobLauncher.run(job, builder.toJobParameters());
+        String mode = args.length > 0 ? args[0].toUpperCase() : "FULL";
+        Job job = context.getBean(SNAPSHOT_MODE.equals(mode) ? "clusterPsmSnapshotJob" : PIPELINE_JOB, Job.class);
+
+        JobParameters jobParameters;
+        if (RESTART_MODE.equals(mode)) {
+            jobParameters = restartParameters(context.getBean("jobExplorer", JobExplorer.class));
+            if (jobParameters == null) {
+                return;
+            }
+        } else {
+            JobParametersBuilder builder = new JobParametersBuilder();
+            builder.addDate("date", new Date());
+            builder.addString(ClusterPsmWatermarkListener.MODE_PARAMETER, mode);
+            if (args.length > 1) {
+                builder.addLong(ClusterPsmWatermarkListener.WATERMARK_PARAMETER, Long.parseLong(args[1]));
+            }
+            jobParameters = builder.toJobParameters();
+        }
+        JobExecution jobExecution = jobLauncher.run(job, jobParameters);
         log.info(jobExecution.getExitStatus().getExitCode());
     }
+
+    /**
+     * @return the parameters of the last execution of the pipeline (running them again restarts its job instance) or
+     * null if it can not be restarted
+     */
+    private static JobParameters restartParameters(JobExplorer jobExplorer) {
+        List<JobInstance> instances = jobExplorer.getJobInstances(PIPELINE_JOB, 0, 1);
+        if (instances.isEmpty()) {
+            log.error("There is no execution of " + PIPELINE_JOB + " to restart");
+            return null;
+        }
+        JobExecution last = null;
+        for (JobExecution execution : jobExplorer.getJobExecutions(instances.get(0))) {
+            if (last == null || execution.getId() > last.getId()) {
+                last = execution;
+            }
+        }
+        if (last == null || (last.getStatus() != BatchStatus.FAILED && last.getStatus() != BatchStatus.STOPPED)) {
+            log.error("The last execution of " + PIPELINE_JOB + " is " + (last == null ? "missing" : last.getStatus())
+                    + ", only a failed or stopped execution can be restarted");
+            return null;
+        }
+        log.info("Restarting the execution " + last.getId() + " of " + PIPELINE_JOB + " with " + last.getJobParameters());
+        return last.getJobParameters();
+    }
 }
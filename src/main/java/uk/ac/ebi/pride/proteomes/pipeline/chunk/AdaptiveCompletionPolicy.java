@@ -0,0 +1,335 @@
+package uk.ac.ebi.pride.proteomes.pipeline.chunk;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Completion policy of the chunks of a step that sizes them from the measured write time and the estimated size of
+ * the items. A chunk is complete when it has the current target number of items or when the estimated size of its
+ * items reaches the heap budget (a peptiform is estimated from its number of assays and clusters). After every write
+ * the target is moved towards the number of items that are written in the target transaction time (at most doubled or
+ * halved each time), and halved when the old generation is over the heap threshold after a collection. The occupancy
+ * after a collection is kept until the next one, so it is only checked when there has been a new collection of the old
+ * generation: every collection halves the chunks of a thread at most once.
+ *
+ * It must be registered as a listener of the step too, to see the items read and the writes. The state is kept per
+ * thread, so it can be shared by the partitions of a step. When adaptive is false the chunks have the initial size,
+ * as with a commit-interval. The targets and the completions are reported to the {@link MetricsRegistry}.
+ */
+public class AdaptiveCompletionPolicy implements CompletionPolicy, StepExecutionListener, ItemReadListener<Object>,
+        ItemWriteListener<Object>, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(AdaptiveCompletionPolicy.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private boolean adaptive = false;
+
+    private int initialSize = 1000;
+
+    private int minSize = 10;
+
+    private int maxSize = 10000;
+
+    private long targetMillis = 2000;
+
+    private long heapBudgetMb = 64;
+
+    private double heapThreshold = 0.85;
+
+    //Estimated size of an item and of every assay and cluster it refers to
+    private long itemBytes = 1024;
+
+    private long elementBytes = 64;
+
+    private MemoryPoolMXBean oldGeneration;
+
+    //Collectors that update the old generation (with G1 the young collections too)
+    private final List<GarbageCollectorMXBean> oldCollectors = new ArrayList<GarbageCollectorMXBean>();
+
+    private final ThreadLocal<ChunkSizer> current = new ThreadLocal<ChunkSizer>();
+
+    public RepeatContext start(RepeatContext parent) {
+        sizer().startChunk();
+        return new RepeatContextSupport(parent);
+    }
+
+    public void update(RepeatContext context) {
+        ((RepeatContextSupport) context).increment();
+    }
+
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        return result == null || !result.isContinuable() || isComplete(context);
+    }
+
+    public boolean isComplete(RepeatContext context) {
+        ChunkSizer sizer = sizer();
+        //It can be asked more than once per chunk, the reason is counted when the next chunk starts
+        if (context.getStartedCount() >= sizer.target) {
+            sizer.completion = sizer.completedByCount;
+            return true;
+        }
+        if (adaptive && sizer.chunkBytes >= heapBudgetMb * 1024 * 1024) {
+            sizer.completion = sizer.completedByBytes;
+            return true;
+        }
+        return false;
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        //The partitions of a step (e.g. worker:partition3) are aggregated
+        String step = stepExecution.getStepName();
+        int separator = step.indexOf(':');
+        current.set(new ChunkSizer(separator < 0 ? step : step.substring(0, separator)));
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        ChunkSizer sizer = current.get();
+        current.remove();
+        if (adaptive && sizer != null) {
+            log.info(stepExecution.getStepName() + " finished with chunks of " + sizer.target + " items");
+        }
+        return null;
+    }
+
+    public void beforeRead() {
+    }
+
+    public void afterRead(Object item) {
+        if (adaptive) {
+            sizer().chunkBytes += estimate(item);
+        }
+    }
+
+    public void onReadError(Exception ex) {
+    }
+
+    public void beforeWrite(List<?> items) {
+        sizer().writeStart = System.nanoTime();
+    }
+
+    public void afterWrite(List<?> items) {
+        ChunkSizer sizer = sizer();
+        //The items written one by one in the skip scan say nothing of the chunk
+        if (!adaptive || items.size() < 2) {
+            return;
+        }
+        sizer.adapt(items.size(), System.nanoTime() - sizer.writeStart);
+    }
+
+    public void onWriteError(Exception exception, List<?> items) {
+    }
+
+    private long estimate(Object item) {
+        long bytes = itemBytes;
+        if (item instanceof Peptiform) {
+            Peptiform peptiform = (Peptiform) item;
+            if (peptiform.getAssays() != null) {
+                bytes += elementBytes * peptiform.getAssays().size();
+            }
+            if (peptiform.getClusters() != null) {
+                bytes += elementBytes * peptiform.getClusters().size();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of collections that update the old generation or -1 if it is unknown (then the occupancy
+     * is never used)
+     */
+    private long oldGenerationCollections() {
+        if (oldCollectors.isEmpty()) {
+            return -1;
+        }
+        long count = 0;
+        for (GarbageCollectorMXBean collector : oldCollectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return the occupancy of the old generation after the last collection or -1 if it is unknown
+     */
+    private double oldGenerationOccupancy() {
+        if (oldGeneration == null) {
+            return -1;
+        }
+        MemoryUsage usage = oldGeneration.getCollectionUsage();
+        if (usage == null || usage.getMax() <= 0) {
+            return -1;
+        }
+        return (double) usage.getUsed() / usage.getMax();
+    }
+
+    private ChunkSizer sizer() {
+        ChunkSizer sizer = current.get();
+        if (sizer == null) {
+            //Not registered as a listener of the step
+            sizer = new ChunkSizer("unknown");
+            current.set(sizer);
+        }
+        return sizer;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.isTrue(minSize > 0 && minSize <= initialSize && initialSize <= maxSize,
+                "The sizes must be 0 < minSize <= initialSize <= maxSize");
+        Assert.isTrue(targetMillis > 0, "The target time must be positive");
+        Assert.isTrue(heapBudgetMb > 0, "The heap budget must be positive");
+
+        //The heap pool with collection usage and the biggest maximum is the old generation
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && (oldGeneration == null || pool.getUsage().getMax() > oldGeneration.getUsage().getMax())) {
+                oldGeneration = pool;
+            }
+        }
+        if (oldGeneration != null) {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (Arrays.asList(collector.getMemoryPoolNames()).contains(oldGeneration.getName())) {
+                    oldCollectors.add(collector);
+                }
+            }
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setTargetMillis(long targetMillis) {
+        this.targetMillis = targetMillis;
+    }
+
+    public void setHeapBudgetMb(long heapBudgetMb) {
+        this.heapBudgetMb = heapBudgetMb;
+    }
+
+    public void setHeapThreshold(double heapThreshold) {
+        this.heapThreshold = heapThreshold;
+    }
+
+    public void setItemBytes(long itemBytes) {
+        this.itemBytes = itemBytes;
+    }
+
+    public void setElementBytes(long elementBytes) {
+        this.elementBytes = elementBytes;
+    }
+
+    /**
+     * Target size of the chunks of a step in the current thread
+     */
+    private class ChunkSizer {
+
+        private final String step;
+        private final MetricsRegistry.Gauge targetGauge;
+        private final MetricsRegistry.Gauge bytesGauge;
+        private final MetricsRegistry.Counter completedByCount;
+        private final MetricsRegistry.Counter completedByBytes;
+        private final MetricsRegistry.Counter grown;
+        private final MetricsRegistry.Counter shrunk;
+        private final MetricsRegistry.Counter memoryPressure;
+
+        private int target = initialSize;
+        private long chunkBytes;
+        private long writeStart;
+        private MetricsRegistry.Counter completion;
+        private long collections = oldGenerationCollections();
+
+        private ChunkSizer(String step) {
+            this.step = step;
+            targetGauge = metricsRegistry.gauge("provider_chunk_target_items", "step", step);
+            bytesGauge = metricsRegistry.gauge("provider_chunk_estimated_bytes", "step", step);
+            completedByCount = metricsRegistry.counter("provider_chunk_completions_total", "step", step, "reason", "count");
+            completedByBytes = metricsRegistry.counter("provider_chunk_completions_total", "step", step, "reason", "heap_budget");
+            grown = metricsRegistry.counter("provider_chunk_adjustments_total", "step", step, "decision", "grow");
+            shrunk = metricsRegistry.counter("provider_chunk_adjustments_total", "step", step, "decision", "shrink");
+            memoryPressure = metricsRegistry.counter("provider_chunk_adjustments_total", "step", step, "decision", "memory_pressure");
+            targetGauge.set(target);
+        }
+
+        private void startChunk() {
+            if (completion != null) {
+                completion.increment();
+                completion = null;
+            }
+            if (chunkBytes > 0) {
+                bytesGauge.set(chunkBytes);
+            }
+            chunkBytes = 0;
+        }
+
+        private void adapt(int items, long writeNanos) {
+            int previous = target;
+
+            //Only the first check after a collection sees a new occupancy
+            long count = oldGenerationCollections();
+            boolean collected = count != collections;
+            collections = count;
+            double occupancy = oldGenerationOccupancy();
+            if (collected && occupancy > heapThreshold) {
+                target = Math.max(minSize, target / 2);
+                memoryPressure.increment();
+            } else {
+                //Items that would be written in the target time at the measured rate, moved at most 2x per chunk
+                double nanosPerItem = Math.max(1.0, (double) writeNanos / items);
+                long ideal = (long) (targetMillis * 1000000L / nanosPerItem);
+                long bounded = Math.max(target / 2, Math.min(2L * target, ideal));
+                target = (int) Math.max(minSize, Math.min(maxSize, bounded));
+                if (target > previous) {
+                    grown.increment();
+                } else if (target < previous) {
+                    shrunk.increment();
+                }
+            }
+
+            targetGauge.set(target);
+            if (target != previous && log.isDebugEnabled()) {
+                log.debug(step + ": chunk of " + items + " items written in " + writeNanos / 1000000 + " ms"
+                        + (occupancy >= 0 ? ", old generation at " + Math.round(occupancy * 100) + "%" : "")
+                        + ", next chunks of " + target + " items instead of " + previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.ebi.pride.proteomes.pipeline.decider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.job.flow.FlowExecutionStatus;
+import org.springframework.batch.core.job.flow.JobExecutionDecider;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Routes the job flow depending on a mode configured in the properties (e.g. SERIAL, PARTITIONED). The mode is
+ * returned in upper case as the flow status, so the job definition can branch on it with {@code <batch:next on=""/>}
+ */
+public class ModeDecider implements JobExecutionDecider, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ModeDecider.class);
+
+    private String mode;
+
+    public FlowExecutionStatus decide(JobExecution jobExecution, StepExecution stepExecution) {
+        log.info("Running in mode: " + mode);
+        return new FlowExecutionStatus(mode);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.hasText(mode, "A mode must be set");
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode == null ? null : mode.trim().toUpperCase();
+    }
+}
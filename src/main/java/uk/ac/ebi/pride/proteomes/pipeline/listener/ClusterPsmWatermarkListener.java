@@ -0,0 +1,188 @@
+package uk.ac.ebi.pride.proteomes.pipeline.listener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.snapshot.ClusterPsmSnapshot;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the high-water mark of the cluster_psm rows processed by the job, so a run in incremental mode only processes
+ * the rows loaded after the last successful run.
+ *
+ * At the beginning of the job the current maximum of the watermark column is stored in the job execution context.
+ * It only becomes the watermark of the next runs if the job completes. In incremental mode (job parameter mode=INCREMENTAL)
+ * the rows to process are the ones between the watermark of the last completed run (or the job parameter watermark if
+ * it is given) and the current maximum. A restart keeps the range of the failed execution.
+ *
+ * The readers are restricted with the configured conditions: for every key the condition is resolved with the range
+ * ({0} is the lower bound, exclusive, and {1} the upper bound, inclusive) and stored in the job execution context, so
+ * it can be added to the queries with #{jobExecutionContext['key']}. In full mode the conditions are empty.
+ *
+ * When the generator replays a snapshot of cluster_psm the watermark is the maximum psm_id stored in the snapshot,
+ * not the current one, so the rows loaded after the export are left for the next incremental run. A replay is always
+ * a full run, the job fails before its first step in incremental mode.
+ */
+public class ClusterPsmWatermarkListener implements JobExecutionListener, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ClusterPsmWatermarkListener.class);
+
+    public static final String MODE_PARAMETER = "mode";
+    public static final String WATERMARK_PARAMETER = "watermark";
+
+    public static final String INCREMENTAL_MODE = "INCREMENTAL";
+
+    public static final String FROM_KEY = "watermark.from";
+    public static final String TO_KEY = "watermark.to";
+
+    private static final int INSTANCES_PAGE_SIZE = 100;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private JobExplorer jobExplorer;
+
+    private JobRepository jobRepository;
+
+    // Returns the current maximum of the watermark column, e.g. select max(psm_id) from cluster_psm
+    private String watermarkQuery;
+
+    private Map<String, String> conditions = Collections.emptyMap();
+
+    //Snapshot replayed by the generator (provider.generator.sort=snapshot), null if the rows are read from the table
+    private File snapshotFile;
+
+    public void beforeJob(JobExecution jobExecution) {
+        ExecutionContext context = jobExecution.getExecutionContext();
+        String mode = jobExecution.getJobParameters().getString(MODE_PARAMETER);
+
+        if (snapshotFile != null && INCREMENTAL_MODE.equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("The snapshot " + snapshotFile + " can only be replayed in a full run, "
+                    + "use provider.generator.sort=database or local for an incremental run");
+        }
+
+        if (context.containsKey(TO_KEY)) {
+            log.info("Restarting with the cluster_psm range of the previous execution ("
+                    + (context.containsKey(FROM_KEY) ? context.getLong(FROM_KEY) : "full") + ", " + context.getLong(TO_KEY) + "]");
+            return;
+        }
+
+        Long to = snapshotFile != null ? snapshotWatermark() : jdbcTemplate.queryForObject(watermarkQuery, Long.class);
+        Long from = null;
+
+        if (INCREMENTAL_MODE.equalsIgnoreCase(mode)) {
+            from = jobExecution.getJobParameters().getLong(WATERMARK_PARAMETER, -1L);
+            if (from < 0) {
+                from = findLastWatermark(jobExecution.getJobInstance().getJobName());
+            }
+            if (from == null) {
+                log.warn("There is no watermark of a previous completed run, all the cluster_psm rows will be processed");
+            }
+        }
+
+        if (to == null) {
+            //Empty table
+            to = from != null ? from : 0L;
+        }
+
+        context.putLong(TO_KEY, to);
+        if (from != null) {
+            context.putLong(FROM_KEY, from);
+            log.info("Incremental run, processing the cluster_psm rows in (" + from + ", " + to + "]");
+        } else {
+            log.info("Full run, the watermark of this run is " + to);
+        }
+
+        for (Map.Entry<String, String> condition : conditions.entrySet()) {
+            String value = from != null ? condition.getValue().replace("{0}", from.toString()).replace("{1}", to.toString()) : "";
+            context.putString(condition.getKey(), value);
+        }
+
+        //The range is kept for a restart
+        jobRepository.updateExecutionContext(jobExecution);
+    }
+
+    public void afterJob(JobExecution jobExecution) {
+        if (jobExecution.getStatus() == BatchStatus.COMPLETED) {
+            log.info("The watermark for the next incremental run is " + jobExecution.getExecutionContext().getLong(TO_KEY));
+        }
+    }
+
+    /**
+     * @return the maximum psm_id of cluster_psm when the snapshot was exported, null if the table was empty
+     */
+    private Long snapshotWatermark() {
+        try {
+            long maxPsmId = ClusterPsmSnapshot.open(snapshotFile).getMaxPsmId();
+            log.info("Replaying the snapshot " + snapshotFile + ", exported up to the psm_id " + maxPsmId);
+            return maxPsmId < 0 ? null : maxPsmId;
+        } catch (IOException e) {
+            throw new IllegalStateException("The snapshot " + snapshotFile + " cannot be read", e);
+        }
+    }
+
+    /**
+     * @return the watermark of the most recent completed execution of the job, null if there is none
+     */
+    private Long findLastWatermark(String jobName) {
+        for (int start = 0; ; start += INSTANCES_PAGE_SIZE) {
+            //The instances are returned from the most recent one
+            List<JobInstance> instances = jobExplorer.getJobInstances(jobName, start, INSTANCES_PAGE_SIZE);
+            for (JobInstance instance : instances) {
+                for (JobExecution execution : jobExplorer.getJobExecutions(instance)) {
+                    if (execution.getStatus() == BatchStatus.COMPLETED && execution.getExecutionContext().containsKey(TO_KEY)) {
+                        return execution.getExecutionContext().getLong(TO_KEY);
+                    }
+                }
+            }
+            if (instances.size() < INSTANCES_PAGE_SIZE) {
+                return null;
+            }
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.notNull(jobExplorer, "A job explorer must be set");
+        Assert.notNull(jobRepository, "A job repository must be set");
+        Assert.hasText(watermarkQuery, "A watermark query must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setJobExplorer(JobExplorer jobExplorer) {
+        this.jobExplorer = jobExplorer;
+    }
+
+    public void setJobRepository(JobRepository jobRepository) {
+        this.jobRepository = jobRepository;
+    }
+
+    public void setWatermarkQuery(String watermarkQuery) {
+        this.watermarkQuery = watermarkQuery;
+    }
+
+    public void setConditions(Map<String, String> conditions) {
+        this.conditions = conditions;
+    }
+
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+}
@@ -0,0 +1,167 @@
+package uk.ac.ebi.pride.proteomes.pipeline.listener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.validator.ValidationException;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.util.List;
+
+/**
+ * Records the time spent reading, processing and writing in every step, and the items read, filtered, written and
+ * failed. The same listener can be used in steps that run concurrently (e.g. the partitions of the generator), the
+ * metrics of the current step are kept per thread. The validation failures are counted as a filter reason.
+ *
+ * The skips and rollbacks of the step are added at the end of the step. The write skips mean that the step has written
+ * chunks again item by item after a failure (the skip scan), which is logged as a warning.
+ */
+public class MetricsListener implements StepExecutionListener, ItemReadListener<Object>,
+        ItemProcessListener<Object, Object>, ItemWriteListener<Object> {
+
+    private static final MetricsRegistry.Counter VALIDATION_FAILURES =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "validation_failure");
+
+    private static final Log log = LogFactory.getLog(MetricsListener.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private final ThreadLocal<StepMetrics> current = new ThreadLocal<StepMetrics>();
+
+    public void beforeStep(StepExecution stepExecution) {
+        //The partitions of a step (e.g. worker:partition3) are aggregated
+        String step = stepExecution.getStepName();
+        int separator = step.indexOf(':');
+        current.set(new StepMetrics(metricsRegistry, separator < 0 ? step : step.substring(0, separator)));
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        StepMetrics metrics = current.get();
+        current.remove();
+        if (metrics != null) {
+            metrics.readSkips.add(stepExecution.getReadSkipCount());
+            metrics.processSkips.add(stepExecution.getProcessSkipCount());
+            metrics.writeSkips.add(stepExecution.getWriteSkipCount());
+            metrics.rollbacks.add(stepExecution.getRollbackCount());
+            if (stepExecution.getWriteSkipCount() > 0) {
+                log.warn(stepExecution.getStepName() + " skipped " + stepExecution.getWriteSkipCount()
+                        + " items in the write scan after " + stepExecution.getRollbackCount() + " rollbacks");
+            }
+        }
+        return null;
+    }
+
+    public void beforeRead() {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.start = System.nanoTime();
+        }
+    }
+
+    public void afterRead(Object item) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.read.record(System.nanoTime() - metrics.start);
+            metrics.itemsRead.increment();
+        }
+    }
+
+    public void onReadError(Exception ex) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.read.record(System.nanoTime() - metrics.start);
+            metrics.errors.increment();
+        }
+    }
+
+    public void beforeProcess(Object item) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.start = System.nanoTime();
+        }
+    }
+
+    public void afterProcess(Object item, Object result) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.process.record(System.nanoTime() - metrics.start);
+            if (result == null) {
+                metrics.itemsFiltered.increment();
+            }
+        }
+    }
+
+    public void onProcessError(Object item, Exception e) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.process.record(System.nanoTime() - metrics.start);
+            metrics.errors.increment();
+        }
+        if (e instanceof ValidationException) {
+            VALIDATION_FAILURES.increment();
+        }
+    }
+
+    public void beforeWrite(List<?> items) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.start = System.nanoTime();
+        }
+    }
+
+    public void afterWrite(List<?> items) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.write.record(System.nanoTime() - metrics.start);
+            metrics.itemsWritten.add(items.size());
+        }
+    }
+
+    public void onWriteError(Exception exception, List<?> items) {
+        StepMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.write.record(System.nanoTime() - metrics.start);
+            metrics.errors.increment();
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    private static class StepMetrics {
+
+        private final MetricsRegistry.Timer read;
+        private final MetricsRegistry.Timer process;
+        private final MetricsRegistry.Timer write;
+        private final MetricsRegistry.Counter itemsRead;
+        private final MetricsRegistry.Counter itemsFiltered;
+        private final MetricsRegistry.Counter itemsWritten;
+        private final MetricsRegistry.Counter errors;
+        private final MetricsRegistry.Counter readSkips;
+        private final MetricsRegistry.Counter processSkips;
+        private final MetricsRegistry.Counter writeSkips;
+        private final MetricsRegistry.Counter rollbacks;
+
+        private long start;
+
+        private StepMetrics(MetricsRegistry registry, String step) {
+            read = registry.timer("provider_step_seconds", "step", step, "phase", "read");
+            process = registry.timer("provider_step_seconds", "step", step, "phase", "process");
+            write = registry.timer("provider_step_seconds", "step", step, "phase", "write");
+            itemsRead = registry.counter("provider_step_items_total", "step", step, "result", "read");
+            itemsFiltered = registry.counter("provider_step_items_total", "step", step, "result", "filtered");
+            itemsWritten = registry.counter("provider_step_items_total", "step", step, "result", "written");
+            errors = registry.counter("provider_step_errors_total", "step", step);
+            readSkips = registry.counter("provider_step_skips_total", "step", step, "phase", "read");
+            processSkips = registry.counter("provider_step_skips_total", "step", step, "phase", "process");
+            writeSkips = registry.counter("provider_step_skips_total", "step", step, "phase", "write");
+            rollbacks = registry.counter("provider_step_rollbacks_total", "step", step);
+        }
+    }
+}
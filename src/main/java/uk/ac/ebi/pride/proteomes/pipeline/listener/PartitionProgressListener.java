@@ -0,0 +1,105 @@
+package uk.ac.ebi.pride.proteomes.pipeline.listener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.util.List;
+
+/**
+ * Progress of every partition of a partitioned step: items written per partition, partitions running and partitions
+ * finished by status. The progress is also logged every logInterval items. Like the {@link MetricsListener} it can be
+ * shared by the partitions, the state of the current partition is kept per thread.
+ */
+public class PartitionProgressListener implements StepExecutionListener, ItemWriteListener<Object> {
+
+    private static final Log log = LogFactory.getLog(PartitionProgressListener.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private long logInterval = 1000000;
+
+    private final ThreadLocal<Progress> current = new ThreadLocal<Progress>();
+
+    public void beforeStep(StepExecution stepExecution) {
+        //worker:partition3
+        String name = stepExecution.getStepName();
+        int separator = name.indexOf(':');
+        String step = separator < 0 ? name : name.substring(0, separator);
+        String partition = separator < 0 ? name : name.substring(separator + 1);
+
+        Progress progress = new Progress(metricsRegistry, step, partition);
+        addRunning(progress.running, 1);
+        current.set(progress);
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        Progress progress = current.get();
+        if (progress != null) {
+            current.remove();
+            addRunning(progress.running, -1);
+            BatchStatus status = stepExecution.getStatus();
+            metricsRegistry.counter("provider_partitions_total", "step", progress.step, "status", status.name()).increment();
+            log.info(stepExecution.getStepName() + " " + status + " after writing " + progress.written
+                    + " items in " + (System.currentTimeMillis() - progress.start) / 1000 + " s");
+        }
+        return null;
+    }
+
+    public void beforeWrite(List<?> items) {
+    }
+
+    public void afterWrite(List<?> items) {
+        Progress progress = current.get();
+        if (progress != null) {
+            progress.itemsWritten.add(items.size());
+            long before = progress.written;
+            progress.written += items.size();
+            if (progress.written / logInterval != before / logInterval) {
+                long seconds = Math.max(1, (System.currentTimeMillis() - progress.start) / 1000);
+                log.info(progress.step + ":" + progress.partition + " written " + progress.written + " items ("
+                        + progress.written / seconds + " items/s)");
+            }
+        }
+    }
+
+    public void onWriteError(Exception exception, List<?> items) {
+    }
+
+    //The partitions start and finish concurrently
+    private static void addRunning(MetricsRegistry.Gauge running, int delta) {
+        synchronized (running) {
+            running.set(running.get() + delta);
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setLogInterval(long logInterval) {
+        this.logInterval = logInterval;
+    }
+
+    private static class Progress {
+
+        private final String step;
+        private final String partition;
+        private final MetricsRegistry.Counter itemsWritten;
+        private final MetricsRegistry.Gauge running;
+        private final long start = System.currentTimeMillis();
+        private long written;
+
+        private Progress(MetricsRegistry registry, String step, String partition) {
+            this.step = step;
+            this.partition = partition;
+            itemsWritten = registry.counter("provider_partition_items_total", "step", step, "partition", partition);
+            running = registry.gauge("provider_partitions_running", "step", step);
+        }
+    }
+}
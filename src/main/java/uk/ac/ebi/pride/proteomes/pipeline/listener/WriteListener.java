@@ -3,10 +3,10 @@ package uk.ac.ebi.pride.proteomes.pipeline.listener;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.ItemWriteListener;
-import uk.ac.ebi.pride.proteomes.db.core.api.protein.Protein;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by IntelliJ IDEA.
@@ -14,25 +14,28 @@ import java.util.List;
  * Date: 14/10/2013
  * Time: 23:03
  */
-public class WriteListener implements ItemWriteListener<Protein> {
+public class WriteListener implements ItemWriteListener<Object> {
 
 	private static final Log log = LogFactory.getLog(WriteListener.class);
 
 
-	int itemWritten = 0;
+	//Shared by all the steps (and the partitions running concurrently), the metrics are kept by the MetricsListener
+	private final AtomicLong itemWritten = new AtomicLong();
 
-	public void beforeWrite(List items) {
-		log.info("BeforeWriteListener - " + items.size() + " - " + itemWritten);
+	public void beforeWrite(List<?> items) {
+		if (log.isDebugEnabled()) {
+			log.debug("BeforeWriteListener - " + items.size() + " - " + itemWritten.get());
+		}
 	}
 
-	public void afterWrite(List items) {
-		itemWritten += items.size();
-		log.info("AfterWriteListener - " + items.size() + " - " + itemWritten);
+	public void afterWrite(List<?> items) {
+		long written = itemWritten.addAndGet(items.size());
+		if (log.isDebugEnabled()) {
+			log.debug("AfterWriteListener - " + items.size() + " - " + written);
+		}
 	}
 
-	public void onWriteError(Exception exception, List items) {
-		log.error("OnWriteErrorWriteListener - " + Arrays.toString(items.toArray()) + " " + exception.getMessage());
-		log.error(exception.getStackTrace());
-
+	public void onWriteError(Exception exception, List<?> items) {
+		log.error("OnWriteErrorWriteListener - " + Arrays.toString(items.toArray()) + " " + exception.getMessage(), exception);
 	}
 }
@@ -0,0 +1,265 @@
+package uk.ac.ebi.pride.proteomes.pipeline.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, timers and gauges of the pipeline. There is a single registry per JVM ({@link #getInstance()}), so the
+ * static code (e.g. the row mappers) can report to it too. The metrics are identified by a name and a list of labels
+ * (key, value, key, value...) and they are created the first time they are requested, so the hot paths should keep a
+ * reference to them instead of looking them up for every item.
+ *
+ * The getters are exposed over JMX and {@link #writePrometheus(Writer)} writes the text format used by Prometheus.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name, String... labels) {
+        String key = key(name, labels);
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            Counter created = new Counter(name, labels(labels));
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public Timer timer(String name, String... labels) {
+        String key = key(name, labels);
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            Timer created = new Timer(name, labels(labels));
+            timer = timers.putIfAbsent(key, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    public Gauge gauge(String name, String... labels) {
+        String key = key(name, labels);
+        Gauge gauge = gauges.get(key);
+        if (gauge == null) {
+            Gauge created = new Gauge(name, labels(labels));
+            gauge = gauges.putIfAbsent(key, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    public Map<String, Long> getCounters() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * @return count, total and maximum time in milliseconds of every timer
+     */
+    public Map<String, String> getTimers() {
+        SortedMap<String, String> values = new TreeMap<String, String>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            values.put(entry.getKey(), "count=" + timer.getCount() + ", total=" + (timer.getTotalNanos() / 1000000)
+                    + " ms, max=" + (timer.getMaxNanos() / 1000000) + " ms");
+        }
+        return values;
+    }
+
+    public Map<String, String> getGauges() {
+        SortedMap<String, String> values = new TreeMap<String, String>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), "value=" + entry.getValue().get() + ", max=" + entry.getValue().getMax());
+        }
+        return values;
+    }
+
+    public String getPrometheusText() {
+        StringWriter writer = new StringWriter();
+        try {
+            writePrometheus(writer);
+        } catch (IOException e) {
+            //Not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text format. The timers are written as summaries in seconds
+     * (_count and _sum) plus a _max gauge, and the gauges with their current value plus a _max gauge.
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+
+        String type = null;
+        for (Counter counter : new TreeMap<String, Counter>(counters).values()) {
+            type = writeType(writer, type, counter.name, "counter");
+            writeSample(writer, counter.name, counter.labels, counter.get());
+        }
+
+        for (Timer timer : new TreeMap<String, Timer>(timers).values()) {
+            type = writeType(writer, type, timer.name, "summary");
+            writeSample(writer, timer.name + "_count", timer.labels, timer.getCount());
+            writeSample(writer, timer.name + "_sum", timer.labels, timer.getTotalNanos() / 1e9);
+        }
+        for (Timer timer : new TreeMap<String, Timer>(timers).values()) {
+            type = writeType(writer, type, timer.name + "_max", "gauge");
+            writeSample(writer, timer.name + "_max", timer.labels, timer.getMaxNanos() / 1e9);
+        }
+
+        for (Gauge gauge : new TreeMap<String, Gauge>(gauges).values()) {
+            type = writeType(writer, type, gauge.name, "gauge");
+            writeSample(writer, gauge.name, gauge.labels, gauge.get());
+        }
+        for (Gauge gauge : new TreeMap<String, Gauge>(gauges).values()) {
+            type = writeType(writer, type, gauge.name + "_max", "gauge");
+            writeSample(writer, gauge.name + "_max", gauge.labels, gauge.getMax());
+        }
+
+        writer.flush();
+    }
+
+    private static String writeType(Writer writer, String previous, String name, String type) throws IOException {
+        if (!name.equals(previous)) {
+            writer.write("# TYPE " + name + " " + type + "\n");
+        }
+        return name;
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, Object value) throws IOException {
+        writer.write(name + labels + " " + value + "\n");
+    }
+
+    private static String key(String name, String... labels) {
+        return name + labels(labels);
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("The labels must be pairs of key and value");
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    public static class Counter {
+
+        private final String name;
+        private final String labels;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name, String labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static class Timer {
+
+        private final String name;
+        private final String labels;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(String name, String labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        public void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+    }
+
+    public static class Gauge {
+
+        private final String name;
+        private final String labels;
+        private final AtomicLong value = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Gauge(String name, String labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        public void set(long newValue) {
+            value.set(newValue);
+            long current = max.get();
+            while (newValue > current && !max.compareAndSet(current, newValue)) {
+                current = max.get();
+            }
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+    }
+}
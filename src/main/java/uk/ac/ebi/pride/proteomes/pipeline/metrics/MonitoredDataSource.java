@@ -0,0 +1,144 @@
+package uk.ac.ebi.pride.proteomes.pipeline.metrics;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.util.Assert;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data source that reports the state of a connection pool to the {@link MetricsRegistry} (so it is available over JMX
+ * and in the Prometheus file): the connections active, idle and waiting, the maximum size of the pool, and the time
+ * waited for a connection. A step that spends its time waiting for connections is starved by the size of the pool.
+ *
+ * The threads waiting and the wait time are measured around getConnection. The active and idle connections are read
+ * from the pool (a commons-dbcp BasicDataSource) after every borrow and every intervalSeconds.
+ */
+public class MonitoredDataSource extends DelegatingDataSource implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(MonitoredDataSource.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private String poolName;
+
+    private long intervalSeconds = 10;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private MetricsRegistry.Gauge activeGauge;
+    private MetricsRegistry.Gauge idleGauge;
+    private MetricsRegistry.Gauge waitingGauge;
+    private MetricsRegistry.Gauge maxGauge;
+    private MetricsRegistry.Timer waitTimer;
+    private MetricsRegistry.Counter failures;
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = begin();
+        try {
+            return super.getConnection();
+        } catch (SQLException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            end(start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = begin();
+        try {
+            return super.getConnection(username, password);
+        } catch (SQLException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            end(start);
+        }
+    }
+
+    private long begin() {
+        waitingGauge.set(waiting.incrementAndGet());
+        return System.nanoTime();
+    }
+
+    private void end(long start) {
+        waitTimer.record(System.nanoTime() - start);
+        waitingGauge.set(waiting.decrementAndGet());
+        sample();
+    }
+
+    private void sample() {
+        if (getTargetDataSource() instanceof BasicDataSource) {
+            BasicDataSource pool = (BasicDataSource) getTargetDataSource();
+            activeGauge.set(pool.getNumActive());
+            idleGauge.set(pool.getNumIdle());
+            maxGauge.set(pool.getMaxActive());
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        Assert.hasText(poolName, "A pool name must be set");
+        Assert.isTrue(intervalSeconds > 0, "The interval must be positive");
+
+        activeGauge = metricsRegistry.gauge("provider_pool_connections", "pool", poolName, "state", "active");
+        idleGauge = metricsRegistry.gauge("provider_pool_connections", "pool", poolName, "state", "idle");
+        waitingGauge = metricsRegistry.gauge("provider_pool_connections", "pool", poolName, "state", "waiting");
+        maxGauge = metricsRegistry.gauge("provider_pool_max_connections", "pool", poolName);
+        waitTimer = metricsRegistry.timer("provider_pool_wait_seconds", "pool", poolName);
+        failures = metricsRegistry.counter("provider_pool_failures_total", "pool", poolName);
+
+        if (!(getTargetDataSource() instanceof BasicDataSource)) {
+            log.info("The pool " + poolName + " is not a BasicDataSource, only the waits are reported");
+            return;
+        }
+        sample();
+
+        //The returns to the pool are not seen here, the connections in use are also sampled periodically
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pool-monitor-" + poolName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public void setIntervalSeconds(long intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+}
@@ -0,0 +1,98 @@
+package uk.ac.ebi.pride.proteomes.pipeline.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps the metrics periodically to a file in the Prometheus text format (e.g. for the node exporter textfile
+ * collector). The file is written in a temporary file and moved, so it is never read half written. The last dump is
+ * done when the context is closed. Without file name the exporter is disabled.
+ */
+public class PrometheusFileExporter implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(PrometheusFileExporter.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private String fileName;
+
+    private long intervalSeconds = 60;
+
+    private ScheduledExecutorService scheduler;
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(metricsRegistry, "A metrics registry must be set");
+        Assert.isTrue(intervalSeconds > 0, "The interval must be positive");
+
+        if (fileName == null || fileName.trim().isEmpty()) {
+            log.info("The metrics won't be exported to a file");
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                export();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        log.info("Exporting the metrics to " + fileName + " every " + intervalSeconds + " s");
+    }
+
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            export();
+        }
+    }
+
+    public void export() {
+        File file = new File(fileName);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), Charset.forName("UTF-8"));
+            try {
+                metricsRegistry.writePrometheus(writer);
+            } finally {
+                writer.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //The job must not fail because of the metrics
+            log.warn("The metrics cannot be written in " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public void setIntervalSeconds(long intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+}
@@ -0,0 +1,73 @@
+package uk.ac.ebi.pride.proteomes.pipeline.metrics;
+
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.util.List;
+
+/**
+ * Same chain as the CompositeItemProcessor (the chain stops when a delegate filters the item), but the time spent in
+ * every delegate and the items filtered by it are recorded in the metrics registry, labeled with the name of the chain
+ * and the class of the delegate.
+ */
+public class TimedCompositeItemProcessor<I, O> implements ItemProcessor<I, O>, InitializingBean {
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private String name;
+
+    private List<? extends ItemProcessor<?, ?>> delegates;
+
+    private MetricsRegistry.Timer[] timers;
+
+    private MetricsRegistry.Counter[] filtered;
+
+    @SuppressWarnings("unchecked")
+    public O process(I item) throws Exception {
+        Object result = item;
+
+        for (int i = 0; i < delegates.size(); i++) {
+            if (result == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                result = ((ItemProcessor<Object, Object>) delegates.get(i)).process(result);
+            } finally {
+                timers[i].record(System.nanoTime() - start);
+            }
+            if (result == null) {
+                filtered[i].increment();
+            }
+        }
+        return (O) result;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.hasText(name, "A name must be set");
+        Assert.notEmpty(delegates, "The 'delegates' may not be empty");
+
+        timers = new MetricsRegistry.Timer[delegates.size()];
+        filtered = new MetricsRegistry.Counter[delegates.size()];
+        for (int i = 0; i < delegates.size(); i++) {
+            //The delegates can be step scoped proxies
+            String processor = ClassUtils.getUserClass(delegates.get(i)).getSimpleName();
+            timers[i] = metricsRegistry.timer("provider_processor_seconds", "chain", name, "processor", processor);
+            filtered[i] = metricsRegistry.counter("provider_processor_filtered_total", "chain", name, "processor", processor);
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setDelegates(List<? extends ItemProcessor<?, ?>> delegates) {
+        this.delegates = delegates;
+    }
+}
@@ -5,6 +5,7 @@ import uk.ac.ebi.pride.jmztab.model.MZTabUtils;
 import uk.ac.ebi.pride.jmztab.model.Param;
 import uk.ac.ebi.pride.jmztab.model.SplitList;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -36,7 +37,17 @@ public class Modification {
         NEUTRAL_LOSS
     }
 
-    private Map<Integer, CVParam> positionMap = new TreeMap<Integer, CVParam>();
+    private static final Pattern MOD_LABEL_PATTERN =
+            Pattern.compile("(MOD|UNIMOD|CHEMMOD|SUBST|PRDMOD):([^\\|]+)(\\|\\[([^,]+)?,([^,]+)?,([^,]+),([^,]*)\\])?");
+    private static final Pattern POSITION_PATTERN =
+            Pattern.compile("(\\d+)(\\[([^,]+)?,([^,]+)?,([^,]+),([^,]*)\\])?");
+
+    // Most of the modifications have only one position, it is kept in primitive fields and the map is only created
+    // when a second position is added (ambiguous modifications)
+    private boolean hasPosition = false;
+    private int position;
+    private CVParam positionParam;
+    private TreeMap<Integer, CVParam> positionMap;
     private Type type;
     private String accession;
     private CVParam neutralLoss;
@@ -78,7 +89,7 @@ public class Modification {
      * Check if the position of the modification is ambiguous or not (multiple positions associated to the same modification
      */
     public boolean isAmbiguous() {
-        return positionMap.size() > 1;
+        return positionMap != null && positionMap.size() > 1;
     }
 
     /**
@@ -99,15 +110,52 @@ public class Modification {
      *              value e.g. a probability score associated with the modification or location.
      */
     public void addPosition(Integer id, CVParam param) {
-        this.positionMap.put(id, param);
+        if (positionMap != null) {
+            positionMap.put(id, param);
+        } else if (!hasPosition) {
+            position = id;
+            positionParam = param;
+            hasPosition = true;
+        } else if (position == id) {
+            positionParam = param;
+        } else {
+            positionMap = new TreeMap<Integer, CVParam>();
+            positionMap.put(position, positionParam);
+            positionMap.put(id, param);
+        }
     }
 
     /**
-     * @return the modification position map, the key is position, and value is {@link CVParam}. This value can set null,
+     * @return read-only modification position map, the key is position, and value is {@link CVParam}. This value can set null,
      * it MAY be used to report a numerical value e.g. a probability score associated with the modification or location.
      */
     public Map<Integer, CVParam> getPositionMap() {
-        return positionMap;
+        if (positionMap != null) {
+            return Collections.unmodifiableMap(positionMap);
+        }
+        if (hasPosition) {
+            return Collections.singletonMap(position, positionParam);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return true if the modification has at least one position
+     */
+    public boolean hasPosition() {
+        return hasPosition;
+    }
+
+    /**
+     * Avoids the creation of the map for the common case.
+     *
+     * @return the lowest position of the modification. It only can be called if {@link #hasPosition()} is true
+     */
+    public int getFirstPosition() {
+        if (!hasPosition) {
+            throw new IllegalStateException("The modification doesn't contain a position");
+        }
+        return positionMap != null ? positionMap.firstKey() : position;
     }
 
     /**
@@ -193,7 +241,7 @@ public class Modification {
         int count = 0;
 
         //position part example: 3[MS, MS:1001876, modification probability, 0.8]|4[MS, MS:1001876, modification probability, 0.2]
-        if (! positionMap.isEmpty()) {
+        if (positionMap != null) {
             it = positionMap.keySet().iterator();
             while (it.hasNext()) {
                 id = it.next();
@@ -207,10 +255,15 @@ public class Modification {
                     sb.append(param);
                 }
             }
+        } else if (hasPosition) {
+            sb.append(position);
+            if (positionParam != null) {
+                sb.append(positionParam);
+            }
         }
 
         //example:  -
-        if (positionMap.size() > 0) {
+        if (hasPosition) {
             sb.append(MINUS);
         }
 
@@ -248,9 +301,21 @@ public class Modification {
     }
 
     /**
-     * Parse the target to {@link uk.ac.ebi.pride.jmztab.model.Modification}
+     * Parse the target to {@link uk.ac.ebi.pride.jmztab.model.Modification}. The common cases are parsed
+     * in a single pass by the {@link ModificationParser}, the rest are delegated to the mzTab based parser.
      */
     public static Modification parseModification(String target) {
+        if (target == null) {
+            return null;
+        }
+        return ModificationParser.parse(target, 0, target.length());
+    }
+
+    /**
+     * Parse the target to {@link uk.ac.ebi.pride.jmztab.model.Modification} using the mzTab utilities. It supports
+     * all the cases (CHEMMOD, neutral losses, CV params in the positions) but it is slower.
+     */
+    static Modification parseModificationWithPatterns(String target) {
         target = parseString(target);
         if (target == null) {
             return null;
@@ -290,8 +355,7 @@ public class Modification {
 
         modLabel = translateUnicodeToMinus(modLabel);
         modLabel = translateTabToMinus(modLabel);
-        Pattern pattern = Pattern.compile("(MOD|UNIMOD|CHEMMOD|SUBST|PRDMOD):([^\\|]+)(\\|\\[([^,]+)?,([^,]+)?,([^,]+),([^,]*)\\])?");
-        Matcher matcher = pattern.matcher(modLabel);
+        Matcher matcher = MOD_LABEL_PATTERN.matcher(modLabel);
         if (matcher.find()) {
             type = Modification.findType(matcher.group(1));
             accession = matcher.group(2);
@@ -320,12 +384,11 @@ public class Modification {
         target = translateTabToComma(target);
         SplitList<String> list = parseStringList(BAR, target);
 
-        Pattern pattern = Pattern.compile("(\\d+)(\\[([^,]+)?,([^,]+)?,([^,]+),([^,]*)\\])?");
         Matcher matcher;
         Integer id;
         CVParam param;
         for (String item : list) {
-            matcher = pattern.matcher(item.trim());
+            matcher = POSITION_PATTERN.matcher(item.trim());
             if (matcher.find()) {
                 id = new Integer(matcher.group(1));
                 param = matcher.group(5) == null ? null : new CVParam(matcher.group(3), matcher.group(4), matcher.group(5), matcher.group(6));
@@ -0,0 +1,190 @@
+package uk.ac.ebi.pride.proteomes.pipeline.mods;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter.ClusterPsmItemMapMods;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes the mapping of a raw mods column (like 0-MOD:00394,10-MOD:00587) to its PRIDE Mod representation, so the
+ * mapping of a row is a single lookup. The number of distinct mods columns in the cluster data is tiny compared with
+ * the number of PSMs, so the ontology is only queried once per distinct column. The unmappable columns are remembered
+ * too, with the reason (a neutral loss or any other unmappable modification).
+ *
+ * The cache can be preloaded with the distinct mods of the cluster table and stored in a file between runs (the file
+ * must be removed when the PRIDE Mod ontology changes).
+ */
+public class ModificationMappingCache implements StepExecutionListener {
+
+    private static final Log log = LogFactory.getLog(ModificationMappingCache.class);
+
+    // Marks the columns that cannot be mapped (ConcurrentHashMap does not allow null values)
+    private static final String UNMAPPABLE = "";
+
+    // Marks the columns that cannot be mapped because they have a neutral loss
+    private static final String NEUTRAL_LOSS = "-";
+
+    public static final String HITS_KEY = "modMappingCache.hits";
+    public static final String MISSES_KEY = "modMappingCache.misses";
+
+    private final ConcurrentMap<String, String> mappings = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String preloadQuery = "select distinct mods from proteomes where mods is not null";
+
+    private boolean preload = false;
+
+    private File file;
+
+    /**
+     * @param modColumn raw mods column from the cluster database (like 0-MOD:00394,10-MOD:00587)
+     * @return the mapped modifications or null if any of them is not mappable
+     */
+    public String map(String modColumn) {
+        String mapped = mappings.get(modColumn);
+        if (mapped != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            mapped = compute(modColumn);
+        }
+        return mapped.isEmpty() || mapped.equals(NEUTRAL_LOSS) ? null : mapped;
+    }
+
+    /**
+     * @return true if the column was not mappable because it has a neutral loss
+     */
+    public boolean isNeutralLoss(String modColumn) {
+        return NEUTRAL_LOSS.equals(mappings.get(modColumn));
+    }
+
+    private String compute(String modColumn) {
+        String mapped = ClusterPsmItemMapMods.mapColumn(modColumn);
+        if (mapped == null) {
+            mapped = ClusterPsmItemMapMods.hasNeutralLoss(modColumn) ? NEUTRAL_LOSS : UNMAPPABLE;
+        }
+        String previous = mappings.putIfAbsent(modColumn, mapped);
+        return previous != null ? previous : mapped;
+    }
+
+    /**
+     * Maps all the distinct mods columns present in the cluster table
+     */
+    public void preload() {
+        final long before = mappings.size();
+        jdbcTemplate.query(preloadQuery, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                String modColumn = rs.getString(1);
+                if (modColumn != null && !modColumn.isEmpty() && !mappings.containsKey(modColumn)) {
+                    compute(modColumn);
+                }
+            }
+        });
+        log.info("Preloaded " + (mappings.size() - before) + " modification mappings");
+    }
+
+    public void load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String mod : properties.stringPropertyNames()) {
+            mappings.put(mod, properties.getProperty(mod));
+        }
+        log.info("Loaded " + properties.size() + " modification mappings from " + file);
+    }
+
+    public void save(File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> entry : mappings.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue());
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            properties.store(out, "Raw mods column to PRIDE Mod mappings (empty if unmappable, - if it has a neutral loss)");
+        } finally {
+            out.close();
+        }
+        log.info("Saved " + properties.size() + " modification mappings to " + file);
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        if (file != null && file.exists()) {
+            try {
+                load(file);
+            } catch (IOException e) {
+                log.warn("The modification mappings cannot be loaded from " + file + ": " + e.getMessage());
+            }
+        }
+        if (preload) {
+            preload();
+        }
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        log.info("Modification mapping cache - size: " + mappings.size() + " hits: " + hits.get() + " misses: " + misses.get());
+        stepExecution.getExecutionContext().putLong(HITS_KEY, hits.get());
+        stepExecution.getExecutionContext().putLong(MISSES_KEY, misses.get());
+
+        if (file != null) {
+            try {
+                save(file);
+            } catch (IOException e) {
+                log.warn("The modification mappings cannot be saved in " + file + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return mappings.size();
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setPreloadQuery(String preloadQuery) {
+        this.preloadQuery = preloadQuery;
+    }
+
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+    }
+
+    /**
+     * @param fileName file to keep the mappings between runs. Empty to disable it.
+     */
+    public void setFileName(String fileName) {
+        this.file = fileName == null || fileName.trim().isEmpty() ? null : new File(fileName.trim());
+    }
+}
@@ -0,0 +1,192 @@
+package uk.ac.ebi.pride.proteomes.pipeline.mods;
+
+import static uk.ac.ebi.pride.jmztab.model.MZTabUtils.translateCommaToTab;
+
+/**
+ * Single pass parser for the modifications found in the cluster data. It covers the common cases, one or more
+ * positions followed by an accession ({position}|{position}-{Type}:{accession}, e.g. 3|4-MOD:00412) or an accession
+ * without position (UNIMOD:21), without using regular expressions or intermediate copies of the string.
+ *
+ * Any other case (CHEMMOD, neutral losses, CV params in the positions, reserved characters, ...) is delegated to
+ * {@link Modification#parseModificationWithPatterns(String)}, so the result is always the same Modification that the
+ * mzTab based parser creates.
+ */
+public final class ModificationParser {
+
+    private static final int POSITION = 0;
+    private static final int TYPE = 1;
+    private static final int ACCESSION = 2;
+
+    // Avoids the overflow of the position
+    private static final int MAX_POSITION_DIGITS = 9;
+
+    // CHEMMOD is not included, the minus sign in the mass needs the mzTab translations
+    private static final Modification.Type[] FAST_TYPES = {
+            Modification.Type.MOD,
+            Modification.Type.UNIMOD,
+            Modification.Type.SUBST,
+            Modification.Type.PRDMOD
+    };
+
+    private static final char[][] FAST_TYPE_NAMES = new char[FAST_TYPES.length][];
+
+    static {
+        for (int i = 0; i < FAST_TYPES.length; i++) {
+            FAST_TYPE_NAMES[i] = FAST_TYPES[i].name().toCharArray();
+        }
+    }
+
+    private ModificationParser() {
+    }
+
+    /**
+     * Parse the modification contained in target between start (inclusive) and end (exclusive)
+     *
+     * @return the modification or null if it can not be parsed
+     */
+    public static Modification parse(CharSequence target, int start, int end) {
+
+        // no modification
+        if (end - start == 1 && target.charAt(start) == '0') {
+            return Modification.createNoModification();
+        }
+
+        // positions are kept in a small primitive buffer, only ambiguous modifications have more than one
+        int[] positions = null;
+        int firstPosition = 0;
+        int numPositions = 0;
+
+        int state = POSITION;
+        int value = 0;
+        int digits = 0;
+        int typeStart = start;
+        Modification.Type type = null;
+        int accessionStart = -1;
+
+        if (start >= end || !isDigit(target.charAt(start))) {
+            state = TYPE;
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = target.charAt(i);
+            switch (state) {
+                case POSITION:
+                    if (isDigit(c)) {
+                        if (++digits > MAX_POSITION_DIGITS) {
+                            return fallback(target, start, end);
+                        }
+                        value = value * 10 + (c - '0');
+                    } else if ((c == '|' || c == '-') && digits > 0) {
+                        if (numPositions == 0) {
+                            firstPosition = value;
+                        } else {
+                            if (positions == null) {
+                                positions = new int[4];
+                                positions[0] = firstPosition;
+                            } else if (numPositions == positions.length) {
+                                int[] aux = new int[positions.length * 2];
+                                System.arraycopy(positions, 0, aux, 0, positions.length);
+                                positions = aux;
+                            }
+                            positions[numPositions] = value;
+                        }
+                        numPositions++;
+                        value = 0;
+                        digits = 0;
+                        if (c == '-') {
+                            state = TYPE;
+                            typeStart = i + 1;
+                        }
+                    } else {
+                        return fallback(target, start, end);
+                    }
+                    break;
+                case TYPE:
+                    if (c == ':') {
+                        type = findFastType(target, typeStart, i);
+                        if (type == null) {
+                            return fallback(target, start, end);
+                        }
+                        state = ACCESSION;
+                        accessionStart = i + 1;
+                    } else if (c < 'A' || c > 'Z') {
+                        return fallback(target, start, end);
+                    }
+                    break;
+                default:
+                    if (isReserved(c)) {
+                        return fallback(target, start, end);
+                    }
+                    break;
+            }
+        }
+
+        // the surrounding white spaces are handled by the mzTab parser
+        if (state != ACCESSION || accessionStart >= end || target.charAt(end - 1) <= ' ') {
+            return fallback(target, start, end);
+        }
+
+        Modification modification = new Modification(type, target.subSequence(accessionStart, end).toString());
+        if (numPositions > 0) {
+            modification.addPosition(firstPosition, null);
+            for (int i = 1; i < numPositions; i++) {
+                modification.addPosition(positions[i], null);
+            }
+        }
+
+        return modification;
+    }
+
+    /**
+     * Splits the modification column of the cluster data (like 0-MOD:00394,10-MOD:00587) in its modifications. The
+     * commas inside the neutral losses are protected in the same way that MZTabUtils.translateCommaToTab does, but
+     * the translation is skipped when there are no CV params in the column.
+     */
+    public static String[] splitModifications(String modColumn) {
+        if (modColumn.indexOf('[') >= 0) {
+            modColumn = translateCommaToTab(modColumn);
+        }
+        return modColumn.split(",");
+    }
+
+    private static Modification fallback(CharSequence target, int start, int end) {
+        return Modification.parseModificationWithPatterns(target.subSequence(start, end).toString());
+    }
+
+    private static Modification.Type findFastType(CharSequence target, int start, int end) {
+        for (int i = 0; i < FAST_TYPE_NAMES.length; i++) {
+            char[] name = FAST_TYPE_NAMES[i];
+            if (name.length == end - start) {
+                int j = 0;
+                while (j < name.length && name[j] == target.charAt(start + j)) {
+                    j++;
+                }
+                if (j == name.length) {
+                    return FAST_TYPES[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Characters with special meaning for the mzTab parser
+    private static boolean isReserved(char c) {
+        switch (c) {
+            case '-':
+            case '|':
+            case '[':
+            case ']':
+            case ',':
+            case '&':
+            case '"':
+            case '\t':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
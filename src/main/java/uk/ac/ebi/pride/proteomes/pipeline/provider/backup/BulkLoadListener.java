@@ -0,0 +1,89 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.backup;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Prepares the target table of a bulk load and restores it afterwards. Before the step the table is optionally
+ * truncated and its non-unique indexes are marked as unusable, so the inserts don't maintain them row by row. After
+ * the step the indexes are rebuilt, also when the step fails, so the table is always left queryable.
+ *
+ * The unique indexes are not touched, Oracle rejects the inserts in a table with an unusable unique index. The table
+ * is truncated only in the first execution of the step: on a restart the rows of the completed partitions are kept.
+ */
+public class BulkLoadListener implements StepExecutionListener, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(BulkLoadListener.class);
+
+    private static final String TRUNCATED_KEY = "bulkLoad.truncated";
+
+    private static final String INDEX_QUERY =
+            "select index_name from user_indexes where table_name = upper(?) and uniqueness = 'NONUNIQUE'";
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String tableName;
+
+    private boolean truncate = false;
+
+    private boolean disableIndexes = true;
+
+    public void beforeStep(StepExecution stepExecution) {
+        if (truncate && !stepExecution.getExecutionContext().containsKey(TRUNCATED_KEY)) {
+            log.info("Truncating " + tableName);
+            jdbcTemplate.execute("truncate table " + tableName);
+            stepExecution.getExecutionContext().putString(TRUNCATED_KEY, "true");
+        }
+        if (disableIndexes) {
+            for (String index : indexes()) {
+                log.info("Disabling the index " + index + " during the load of " + tableName);
+                jdbcTemplate.execute("alter index " + index + " unusable");
+            }
+        }
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (disableIndexes) {
+            for (String index : indexes()) {
+                long start = System.currentTimeMillis();
+                jdbcTemplate.execute("alter index " + index + " rebuild");
+                log.info("Rebuilt the index " + index + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+        return null;
+    }
+
+    private List<String> indexes() {
+        return jdbcTemplate.queryForList(INDEX_QUERY, String.class, tableName);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(tableName, "The table name must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public void setTruncate(boolean truncate) {
+        this.truncate = truncate;
+    }
+
+    public void setDisableIndexes(boolean disableIndexes) {
+        this.disableIndexes = disableIndexes;
+    }
+}
@@ -0,0 +1,74 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.backup;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.partition.PeptiformClusterPartitioner;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits a table in gridSize contiguous ranges of rowids with a similar number of rows, so every partition reads only
+ * the blocks of its range (rowid between ? and ?) instead of scanning the whole table.
+ *
+ * The ranges are computed once, before the partitions run, with the range query. It is bound with the grid size and
+ * returns the first rowid, the last rowid and the number of rows of every range, e.g. with ntile over the rowids
+ * (it reads only the rowids and needs no privileges on the dictionary, unlike the extents of DBMS_ROWID).
+ */
+public class RowidRangePartitioner implements Partitioner, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(RowidRangePartitioner.class);
+
+    public static final String FIRST_ROWID_KEY = "firstRowid";
+    public static final String LAST_ROWID_KEY = "lastRowid";
+
+    private static final String PARTITION_PREFIX = "partition";
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String rangeQuery;
+
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        final Map<String, ExecutionContext> result = new HashMap<String, ExecutionContext>();
+        long start = System.currentTimeMillis();
+
+        jdbcTemplate.query(rangeQuery, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                ExecutionContext context = new ExecutionContext();
+                context.putString(FIRST_ROWID_KEY, rs.getString(1));
+                context.putString(LAST_ROWID_KEY, rs.getString(2));
+                context.putLong(PeptiformClusterPartitioner.ROW_COUNT_KEY, rs.getLong(3));
+
+                String name = PARTITION_PREFIX + result.size();
+                log.debug(name + ": rowids [" + rs.getString(1) + ", " + rs.getString(2) + "] " + rs.getLong(3) + " rows");
+                result.put(name, context);
+            }
+        }, Math.max(1, gridSize));
+
+        log.info("Created " + result.size() + " rowid ranges for a grid size of " + gridSize + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return result;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(rangeQuery, "A range query must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setRangeQuery(String rangeQuery) {
+        this.rangeQuery = rangeQuery;
+    }
+}
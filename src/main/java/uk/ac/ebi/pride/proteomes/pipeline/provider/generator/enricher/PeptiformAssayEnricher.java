@@ -2,6 +2,7 @@ package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.enricher;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ItemReadListener;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -9,22 +10,22 @@ import uk.ac.ebi.pride.archive.repo.assay.service.AssayService;
 import uk.ac.ebi.pride.archive.repo.assay.service.AssaySummary;
 import uk.ac.ebi.pride.archive.repo.param.service.CvParamSummary;
 import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
-import uk.ac.ebi.pride.proteomes.db.core.api.assay.AssayProteomesRepository;
 import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationRepository;
 import uk.ac.ebi.pride.proteomes.db.core.api.param.*;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.PeptideRepository;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * User: ntoro
  * Date: 06/12/2013
  * Time: 10:29
  */
-public class PeptiformAssayEnricher implements ItemProcessor<Assay, Assay> {
+public class PeptiformAssayEnricher implements ItemProcessor<Assay, Assay>, ItemReadListener<Assay> {
 
     private static final Log log = LogFactory.getLog(PeptiformAssayEnricher.class);
 
@@ -32,10 +33,6 @@ public class PeptiformAssayEnricher implements ItemProcessor<Assay, Assay> {
     @Qualifier("cvParamProteomesRepository")
     private CvParamProteomesRepository cvParamRepository;
 
-    @Autowired
-    @Qualifier("assayProteomesRepository")
-    private AssayProteomesRepository proteomesAssayRepository;
-
     @Autowired
     @Qualifier("modificationRepository")
     private ModificationRepository modificationRepository;
@@ -48,38 +45,58 @@ public class PeptiformAssayEnricher implements ItemProcessor<Assay, Assay> {
     private AssayService assayService;
 
 
-    private HashMap<String, CvParam> enrichedCvs = new HashMap<String, CvParam>();
+    @PersistenceContext(unitName = "pride-proteomes-db-core")
+    private EntityManager entityManager;
 
+    // Oracle does not allow more than 1000 elements in an IN list
+    private static final int MAX_IN_LIST_SIZE = 1000;
 
-    public Assay process(Assay item) throws Exception {
+    //Shared by the threads of the concurrent mode, the first instance created for an accession is the one kept
+    private final ConcurrentMap<String, CvParam> enrichedCvs = new ConcurrentHashMap<String, CvParam>();
 
+    //Retrieve the assays of the chunk in bulk. It must be disabled when the items are processed concurrently
+    private boolean prefetch = true;
 
-        //If we find or not is independent, we are going to enrich it overwriting the previous information
-        if (!proteomesAssayRepository.exists(item.getAssayAccession())) {
-            log.debug("Assay ac: " + item.getAssayAccession() + "exists in the proteomes database");
+    //Assays read in the current chunk, they are retrieved from the Archive and enriched in bulk
+    private final Map<String, String> pendingAssays = new LinkedHashMap<String, String>();
+    private final Map<String, AssaySummary> archiveAssays = new HashMap<String, AssaySummary>();
+    //CV terms of the chunk found in the proteomes database (null value if it is not stored)
+    private final Map<String, CvParam> storedCvs = new HashMap<String, CvParam>();
+    private boolean processing = false;
+
+
+    public Assay process(Assay item) throws Exception {
+
+        if (!pendingAssays.isEmpty()) {
+            prefetch();
         }
+        processing = true;
 
+        //If we find or not is independent, we are going to enrich it overwriting the previous information
         //We retrieve the information from the Archive
-        AssaySummary archiveAssay = assayService.findByAccession(item.getAssayAccession());
+        AssaySummary archiveAssay = archiveAssays.get(item.getAssayAccession());
+        if (archiveAssay == null) {
+            archiveAssay = assayService.findByAccession(item.getAssayAccession());
+        }
 
         assert archiveAssay != null;
         log.debug("Assay ac: " + item.getAssayAccession());
 
 
         //Cell Type
-        Set<CellType> cellTypes = cvTerms(archiveAssay.getCellTypes(), cvParamRepository, enrichedCvs, CellType.class);
+        Set<CellType> cellTypes = cvTerms(archiveAssay.getCellTypes(), cvParamRepository, storedCvs, enrichedCvs, CellType.class);
         if (!cellTypes.isEmpty()) {
             item.setCellTypes(cellTypes);
         }
 
         //Tissues
-        Set<Tissue> tissues = cvTerms(archiveAssay.getTissues(), cvParamRepository, enrichedCvs, Tissue.class);
+        Set<Tissue> tissues = cvTerms(archiveAssay.getTissues(), cvParamRepository, storedCvs, enrichedCvs, Tissue.class);
         if (!tissues.isEmpty()) {
             item.setTissues(tissues);
         }
 
         //Diseases
-        Set<Disease> diseases = cvTerms(archiveAssay.getDiseases(), cvParamRepository, enrichedCvs, Disease.class);
+        Set<Disease> diseases = cvTerms(archiveAssay.getDiseases(), cvParamRepository, storedCvs, enrichedCvs, Disease.class);
         if (!diseases.isEmpty()) {
             item.setDiseases(diseases);
         }
@@ -125,29 +142,127 @@ public class PeptiformAssayEnricher implements ItemProcessor<Assay, Assay> {
 
     }
 
+    /**
+     * Retrieves from the Archive the assays read in the chunk (one query per project) and the CV terms of all of them
+     * that are already stored in the proteomes database (one query)
+     */
+    private void prefetch() {
+
+        Map<String, Set<String>> assaysByProject = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, String> entry : pendingAssays.entrySet()) {
+            Set<String> assays = assaysByProject.get(entry.getValue());
+            if (assays == null) {
+                assays = new HashSet<String>();
+                assaysByProject.put(entry.getValue(), assays);
+            }
+            assays.add(entry.getKey());
+        }
+
+        for (Map.Entry<String, Set<String>> entry : assaysByProject.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+            for (AssaySummary assaySummary : assayService.findAllByProjectAccession(entry.getKey())) {
+                if (entry.getValue().contains(assaySummary.getAccession())) {
+                    archiveAssays.put(assaySummary.getAccession(), assaySummary);
+                }
+            }
+        }
+
+        Set<String> accessions = new HashSet<String>();
+        for (AssaySummary assaySummary : archiveAssays.values()) {
+            addAccessions(accessions, assaySummary.getCellTypes());
+            addAccessions(accessions, assaySummary.getTissues());
+            addAccessions(accessions, assaySummary.getDiseases());
+        }
+        accessions.removeAll(storedCvs.keySet());
+
+        List<String> terms = new ArrayList<String>(accessions);
+        for (String term : terms) {
+            storedCvs.put(term, null);
+        }
+        for (int from = 0; from < terms.size(); from += MAX_IN_LIST_SIZE) {
+            List<CvParam> found = entityManager
+                    .createQuery("select c from CvParam c where c.cvTerm in :terms", CvParam.class)
+                    .setParameter("terms", terms.subList(from, Math.min(terms.size(), from + MAX_IN_LIST_SIZE)))
+                    .getResultList();
+            for (CvParam cvParam : found) {
+                storedCvs.put(cvParam.getCvTerm(), cvParam);
+            }
+        }
+
+        log.debug("Prefetched " + archiveAssays.size() + " archive assays of " + pendingAssays.size()
+                + " and " + terms.size() + " CV terms");
+        pendingAssays.clear();
+    }
+
+    private static void addAccessions(Set<String> accessions, Collection<CvParamSummary> cvParamSummaries) {
+        if (cvParamSummaries != null) {
+            for (CvParamSummary cvParamSummary : cvParamSummaries) {
+                accessions.add(cvParamSummary.getAccession());
+            }
+        }
+    }
+
+    public void beforeRead() {
+    }
+
+    // Queues the assay for the prefetch of the archive assays and CV terms of the chunk. The prefetched entities are
+    // kept while the chunk is processed (and retried), a read after that starts the next chunk
+    public void afterRead(Assay item) {
+        if (!prefetch) {
+            return;
+        }
+        if (processing) {
+            archiveAssays.clear();
+            storedCvs.clear();
+            processing = false;
+        }
+        pendingAssays.put(item.getAssayAccession(), item.getProjectAccession());
+    }
+
+    public void onReadError(Exception ex) {
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * @param storedCvs CV terms already retrieved from the proteomes database, if an accession is not a key of the map
+     *                  it is looked up with the repository. A null value means that the term is not stored.
+     */
     @SuppressWarnings("unchecked")
     protected static <T extends CvParam> Set<T> cvTerms(Collection<CvParamSummary> cvParamSummaries,
                                                                CvParamProteomesRepository cvParamRepository,
-                                                               HashMap<String, CvParam> enrichedCvs,
+                                                               Map<String, CvParam> storedCvs,
+                                                               ConcurrentMap<String, CvParam> enrichedCvs,
                                                                Class<T> clazz) throws IllegalAccessException, InstantiationException {
         HashSet<T> cvParams = new HashSet<T>();
         for (CvParamSummary cvParamSummary : cvParamSummaries) {
-            T cvTerm = (T) cvParamRepository.findByCvTerm(cvParamSummary.getAccession());
+            T cvTerm = storedCvs.containsKey(cvParamSummary.getAccession())
+                    ? (T) storedCvs.get(cvParamSummary.getAccession())
+                    : (T) cvParamRepository.findByCvTerm(cvParamSummary.getAccession());
             if (cvTerm == null) {
                 cvTerm = (T) enrichedCvs.get(cvParamSummary.getAccession());
                 if (cvTerm == null) {
-                        cvTerm = clazz.newInstance();
-
-                    cvTerm.setCvTerm(cvParamSummary.getAccession());
-                    cvTerm.setCvName(cvParamSummary.getName());
-                    cvTerm.setDescription(cvParamSummary.getName());
+                    T newCvTerm = clazz.newInstance();
+                    newCvTerm.setCvTerm(cvParamSummary.getAccession());
+                    newCvTerm.setCvName(cvParamSummary.getName());
+                    newCvTerm.setDescription(cvParamSummary.getName());
                     //This is persisted with the assay (Cascade.ALL)
                     //tissue = (Tissue) cvParamRepository.save(tissue);
 
+                    //Another thread can have created it in the meantime
+                    cvTerm = (T) enrichedCvs.putIfAbsent(cvParamSummary.getAccession(), newCvTerm);
+                    if (cvTerm == null) {
+                        cvTerm = newCvTerm;
+                    }
                 }
+            } else {
+                enrichedCvs.put(cvParamSummary.getAccession(), cvTerm);
             }
 
-            enrichedCvs.put(cvParamSummary.getAccession(), cvTerm);
             cvParams.add(cvTerm);
         }
 
@@ -0,0 +1,102 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.enricher;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set based alternative to the PeptiformAssayPropagator. The cell types, tissues and diseases of the assays are
+ * copied to their peptiforms with INSERT ... SELECT DISTINCT statements over the join tables, so the peptiforms and
+ * their assays are never loaded in memory. As in the processor, the terms are only added (the existing ones are kept).
+ *
+ * The peptiforms are processed in ranges of peptide ids. Every call to the tasklet processes one range in its own
+ * transaction and the next range is kept in the step execution context, so a restart continues from the last
+ * committed range. The statements receive the range as :minId and :maxId (both inclusive).
+ */
+public class PeptiformCvPropagationTasklet implements Tasklet, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptiformCvPropagationTasklet.class);
+
+    private static final String NEXT_ID_KEY = "propagation.nextId";
+    private static final String MAX_ID_KEY = "propagation.maxId";
+
+    private JdbcTemplate jdbcTemplate;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    // Returns the minimum and maximum peptide id to propagate
+    private String rangeQuery;
+
+    private List<String> statements;
+
+    private long rangeSize = 100000;
+
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+
+        ExecutionContext context = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+
+        if (!context.containsKey(NEXT_ID_KEY)) {
+            Map<String, Object> range = jdbcTemplate.queryForMap(rangeQuery);
+            Object[] values = range.values().toArray();
+            if (values[0] == null) {
+                log.info("There are no peptiforms to propagate");
+                return RepeatStatus.FINISHED;
+            }
+            context.putLong(NEXT_ID_KEY, ((Number) values[0]).longValue());
+            context.putLong(MAX_ID_KEY, ((Number) values[1]).longValue());
+        }
+
+        long minId = context.getLong(NEXT_ID_KEY);
+        long maxId = Math.min(context.getLong(MAX_ID_KEY), minId + rangeSize - 1);
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource("minId", minId).addValue("maxId", maxId);
+        int rows = 0;
+        for (String statement : statements) {
+            rows += namedParameterJdbcTemplate.update(statement, parameters);
+        }
+
+        contribution.incrementReadCount();
+        contribution.incrementWriteCount(rows);
+        log.debug("Propagated " + rows + " CV terms to the peptiforms between " + minId + " and " + maxId);
+
+        context.putLong(NEXT_ID_KEY, maxId + 1);
+        return maxId < context.getLong(MAX_ID_KEY) ? RepeatStatus.CONTINUABLE : RepeatStatus.FINISHED;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(rangeQuery, "A range query must be set");
+        Assert.notEmpty(statements, "The propagation statements must be set");
+        Assert.isTrue(rangeSize > 0, "The range size must be positive");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    public void setRangeQuery(String rangeQuery) {
+        this.rangeQuery = rangeQuery;
+    }
+
+    public void setStatements(List<String> statements) {
+        this.statements = statements;
+    }
+
+    public void setRangeSize(long rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+}
@@ -0,0 +1,218 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.enricher;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.archive.repo.assay.service.AssayService;
+import uk.ac.ebi.pride.archive.repo.assay.service.AssaySummary;
+import uk.ac.ebi.pride.archive.repo.param.service.CvParamSummary;
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.param.*;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Enriches the assays of a new peptiform and propagates their CV terms to it before the peptiform is written, so the
+ * generator step does the work of the enricher and propagator steps in the same pass (provider.pipeline.mode=FUSED).
+ *
+ * An assay is enriched from the Archive the first time it is seen in the step, with the same logic as the
+ * {@link PeptiformAssayEnricher}. Its terms are kept for the rest of the step and copied to the other instances of the
+ * same assay. The terms are then added to the peptiform with the {@link PeptiformAssayPropagator}.
+ *
+ * Only stored terms are kept, so the instances handed to the other chunks and partitions have an id and are merged with
+ * the assays instead of inserted again. A term that is not in the proteomes database is stored in its own transaction
+ * the first time it is found (once, the creations are serialized).
+ *
+ * The caches are shared by the partitions of the step, so it must be registered as a listener of the step that owns
+ * them (the master step in partitioned mode), which clears them. When it is disabled the items are returned untouched.
+ */
+public class PeptiformFusedEnricher implements ItemProcessor<Peptiform, Peptiform>, StepExecutionListener, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptiformFusedEnricher.class);
+
+    private static final MetricsRegistry.Counter ENRICHED_ASSAYS =
+            MetricsRegistry.getInstance().counter("provider_fused_assays_total", "result", "enriched");
+
+    private static final MetricsRegistry.Counter CACHED_ASSAYS =
+            MetricsRegistry.getInstance().counter("provider_fused_assays_total", "result", "cached");
+
+    @Autowired
+    @Qualifier("cvParamProteomesRepository")
+    private CvParamProteomesRepository cvParamRepository;
+
+    @Autowired
+    private AssayService assayService;
+
+    private PeptiformAssayPropagator propagator;
+
+    private TransactionTemplate transactionTemplate;
+
+    private boolean enabled = false;
+
+    //provider.generator.writer, only the jpa writer persists the terms attached to the assays and peptiforms
+    private String writer = "jpa";
+
+    //First enriched instance of every assay of the step, the other instances get its terms
+    private final ConcurrentMap<String, Assay> enrichedAssays = new ConcurrentHashMap<String, Assay>();
+
+    //CV terms of the step, all of them stored in the proteomes database
+    private final ConcurrentMap<String, CvParam> cvTerms = new ConcurrentHashMap<String, CvParam>();
+
+    public Peptiform process(Peptiform item) throws Exception {
+        if (!enabled) {
+            return item;
+        }
+
+        if (item.getAssays() != null) {
+            for (Assay assay : item.getAssays()) {
+                enrich(assay);
+            }
+        }
+
+        return propagator.process(item);
+    }
+
+    private void enrich(Assay assay) throws Exception {
+        Assay enriched = enrichedAssays.get(assay.getAssayAccession());
+        if (enriched == null) {
+            AssaySummary archiveAssay = assayService.findByAccession(assay.getAssayAccession());
+            assert archiveAssay != null;
+
+            Set<CellType> cellTypes = cvTerms(archiveAssay.getCellTypes(), CellType.class);
+            if (!cellTypes.isEmpty()) {
+                assay.setCellTypes(cellTypes);
+            }
+            Set<Tissue> tissues = cvTerms(archiveAssay.getTissues(), Tissue.class);
+            if (!tissues.isEmpty()) {
+                assay.setTissues(tissues);
+            }
+            Set<Disease> diseases = cvTerms(archiveAssay.getDiseases(), Disease.class);
+            if (!diseases.isEmpty()) {
+                assay.setDiseases(diseases);
+            }
+
+            //Another thread can have enriched it in the meantime, the result is the same
+            enriched = enrichedAssays.putIfAbsent(assay.getAssayAccession(), assay);
+            if (enriched == null) {
+                ENRICHED_ASSAYS.increment();
+                return;
+            }
+        }
+
+        CACHED_ASSAYS.increment();
+        if (enriched != assay) {
+            assay.setCellTypes(copy(enriched.getCellTypes()));
+            assay.setTissues(copy(enriched.getTissues()));
+            assay.setDiseases(copy(enriched.getDiseases()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends CvParam> Set<T> cvTerms(Collection<CvParamSummary> cvParamSummaries, Class<T> clazz) {
+        Set<T> cvParams = new HashSet<T>();
+        for (CvParamSummary cvParamSummary : cvParamSummaries) {
+            CvParam cvTerm = cvTerms.get(cvParamSummary.getAccession());
+            if (cvTerm == null) {
+                cvTerm = storedCvTerm(cvParamSummary, clazz);
+            }
+            cvParams.add((T) cvTerm);
+        }
+        return cvParams;
+    }
+
+    /**
+     * @return the stored term of the accession, it is stored in its own transaction if it is not in the database
+     */
+    private CvParam storedCvTerm(final CvParamSummary cvParamSummary, final Class<? extends CvParam> clazz) {
+        CvParam cvTerm = cvParamRepository.findByCvTerm(cvParamSummary.getAccession());
+        if (cvTerm == null) {
+            synchronized (cvTerms) {
+                cvTerm = cvTerms.get(cvParamSummary.getAccession());
+                if (cvTerm == null) {
+                    cvTerm = transactionTemplate.execute(new TransactionCallback<CvParam>() {
+                        public CvParam doInTransaction(TransactionStatus status) {
+                            //Another job can have stored it in the meantime
+                            CvParam stored = cvParamRepository.findByCvTerm(cvParamSummary.getAccession());
+                            if (stored != null) {
+                                return stored;
+                            }
+                            CvParam newCvTerm = BeanUtils.instantiate(clazz);
+                            newCvTerm.setCvTerm(cvParamSummary.getAccession());
+                            newCvTerm.setCvName(cvParamSummary.getName());
+                            newCvTerm.setDescription(cvParamSummary.getName());
+                            return cvParamRepository.save(newCvTerm);
+                        }
+                    });
+                    log.debug("New CV term " + cvParamSummary.getAccession() + " stored in the database");
+                }
+            }
+        }
+        CvParam previous = cvTerms.putIfAbsent(cvParamSummary.getAccession(), cvTerm);
+        return previous == null ? cvTerm : previous;
+    }
+
+    private static <T> Set<T> copy(Set<T> terms) {
+        return terms == null ? null : new HashSet<T>(terms);
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        enrichedAssays.clear();
+        cvTerms.clear();
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (enabled) {
+            log.info("Enriched " + enrichedAssays.size() + " assays with " + cvTerms.size() + " CV terms in " + stepExecution.getStepName());
+        }
+        enrichedAssays.clear();
+        cvTerms.clear();
+        return null;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(propagator, "A PeptiformAssayPropagator must be set");
+        if (enabled) {
+            Assert.notNull(transactionTemplate, "A PlatformTransactionManager must be set");
+            if (!"jpa".equalsIgnoreCase(writer)) {
+                throw new IllegalStateException("provider.pipeline.mode=FUSED needs provider.generator.writer=jpa, the "
+                        + writer + " writer does not persist the CV terms of the assays and peptiforms");
+            }
+        }
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public void setPropagator(PeptiformAssayPropagator propagator) {
+        this.propagator = propagator;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setWriter(String writer) {
+        this.writer = writer;
+    }
+}
@@ -4,15 +4,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.item.ItemProcessor;
 import uk.ac.ebi.pride.proteomes.db.core.api.cluster.ClusterPsm;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
 import uk.ac.ebi.pride.proteomes.pipeline.mods.Modification;
+import uk.ac.ebi.pride.proteomes.pipeline.mods.ModificationMappingCache;
+import uk.ac.ebi.pride.proteomes.pipeline.mods.ModificationParser;
 import uk.ac.ebi.pridemod.ModReader;
 import uk.ac.ebi.pridemod.model.PRIDEModPTM;
 import uk.ac.ebi.pridemod.model.PTM;
 
 import java.util.List;
 
-import static uk.ac.ebi.pride.jmztab.model.MZTabUtils.translateCommaToTab;
-
 /**
  * User: ntoro
  * Date: 06/12/2013
@@ -22,60 +23,91 @@ public class ClusterPsmItemMapMods implements ItemProcessor<ClusterPsm, ClusterP
 
     private static final Log log = LogFactory.getLog(ClusterPsmItemMapMods.class);
 
+    private static final MetricsRegistry.Counter UNMAPPABLE_MODS =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "unmappable_mod");
+    //Counted per filtered row, as the neutral losses removed by the row mapper
+    private static final MetricsRegistry.Counter NEUTRAL_LOSSES =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "neutral_loss");
+
     public static final String SPLIT_CHAR = ":";
 
+    //Optional, if it is not set every modification is mapped against the ontology
+    private ModificationMappingCache mappingCache;
+
 
     public ClusterPsm process(ClusterPsm item) throws Exception {
 
 
         //Now they are preinserted in the DB, but it can be uncommented in the future
         if (item.getModifications() != null && !item.getModifications().isEmpty()) {
-            String mappedMods = null;
             String modColumn = item.getModifications();
 
-            //Avoids split neutral losses by the comma
-            modColumn = translateCommaToTab(modColumn);
-            // 0-MOD:00394,10-MOD:00587  -> (0,MOD:00394)(10,MOD:00587)
-
-            String[] mods = modColumn.split(",");
-            assert mods.length > 0;
-
-            mappedMods = mapModifications(mods[0]);
-            if (mappedMods == null || mappedMods.isEmpty()) {
-                log.debug("The provided modification " + mods[0] + " is not mappable");
+            String mappedMods = mappingCache != null ? mappingCache.map(modColumn) : mapColumn(modColumn);
+            if (mappedMods == null) {
+                log.debug("The provided modifications " + modColumn + " are not mappable");
                 log.debug("The cluster psm " + item.toString() + " will be filtered.");
+                boolean neutralLoss = mappingCache != null ? mappingCache.isNeutralLoss(modColumn) : hasNeutralLoss(modColumn);
+                (neutralLoss ? NEUTRAL_LOSSES : UNMAPPABLE_MODS).increment();
 
                 return null;
             }
 
-            if (mods.length > 1) {
-                for (int i = 1; i < mods.length; i++) {
-                    //We assume that the modifications are sorted by position =
-                    String aux = mapModifications(mods[i]);
-                    if (aux == null || aux.isEmpty()) {
-                        log.debug("The provided modification " + mods[i] + " is not mappable");
-                        log.debug("The cluster psm " + item.toString() + " will be filtered.");
-
-                        return null;
-                    } else {
-                        mappedMods = mappedMods + "," + aux;
-                    }
-                }
-            }
-
             item.setModifications(mappedMods);
         }
 
         return item;
     }
 
+    /**
+     * Maps all the modifications of a mods column
+     *
+     * @param modColumn raw column from the cluster database (like 0-MOD:00394,10-MOD:00587)
+     * @return the mapped modifications separated by commas, or null if any of them is not mappable
+     */
+    public static String mapColumn(String modColumn) {
+        //Avoids split neutral losses by the comma
+        // 0-MOD:00394,10-MOD:00587  -> (0,MOD:00394)(10,MOD:00587)
+        String[] mods = ModificationParser.splitModifications(modColumn);
+        StringBuilder mappedMods = new StringBuilder();
+        for (String mod : mods) {
+            //We assume that the modifications are sorted by position
+            String mapped = mapModifications(mod);
+            if (mapped == null || mapped.isEmpty()) {
+                log.debug("The provided modification " + mod + " is not mappable");
+                return null;
+            }
+            if (mappedMods.length() > 0) {
+                mappedMods.append(',');
+            }
+            mappedMods.append(mapped);
+        }
+        return mappedMods.toString();
+    }
+
+    /**
+     * @return true if a modification of the column has a neutral loss (then it is not mappable)
+     */
+    public static boolean hasNeutralLoss(String modColumn) {
+        for (String mod : ModificationParser.splitModifications(modColumn)) {
+            Modification mzTabMod;
+            try {
+                mzTabMod = Modification.parseModification(mod);
+            } catch (RuntimeException e) {
+                mzTabMod = null;
+            }
+            if (mzTabMod != null && mzTabMod.getNeutralLoss() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Transform the modification string to a ModificationLocation. It will filtered neutral losses
      *
      * @param mod raw string from the cluster database (like  0-MOD:00394)
      */
-    protected static String mapModifications(String mod) {
+    public static String mapModifications(String mod) {
 
         ModReader modReader = ModReader.getInstance();
 
@@ -150,5 +182,7 @@ public class ClusterPsmItemMapMods implements ItemProcessor<ClusterPsm, ClusterP
         return mzTabMod.toString();
     }
 
-
+    public void setMappingCache(ModificationMappingCache mappingCache) {
+        this.mappingCache = mappingCache;
+    }
 }
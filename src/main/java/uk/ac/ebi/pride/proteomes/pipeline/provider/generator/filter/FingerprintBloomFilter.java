@@ -0,0 +1,49 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
+
+/**
+ * Bloom filter over 64-bit fingerprints. The probes are derived from the two halves of the fingerprint (double
+ * hashing), so no extra hashing of the original string is needed. Like the {@link FingerprintSet} it can be read
+ * concurrently once it has been filled.
+ */
+public class FingerprintBloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedSize number of fingerprints that will be added
+     * @param bitsPerElement 10 bits per element give ~1% of false positives
+     */
+    public FingerprintBloomFilter(int expectedSize, int bitsPerElement) {
+        long words = Math.max(1, ((long) Math.max(expectedSize, 1) * bitsPerElement + 63) / 64);
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, words)];
+        this.numBits = bits.length * 64L;
+        this.numHashes = Math.max(1, (int) Math.round(bitsPerElement * Math.log(2)));
+    }
+
+    public void add(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long memory() {
+        return bits.length * 8L;
+    }
+}
@@ -0,0 +1,121 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
+
+/**
+ * Open addressing (linear probing) set of 64-bit fingerprints backed by a primitive array. Zero is used to mark the
+ * empty slots, so it is remapped to another value. It is not thread safe for writes, but it can be read concurrently
+ * once it has been filled.
+ */
+public class FingerprintSet {
+
+    private static final long EMPTY = 0L;
+    private static final long ZERO_REPLACEMENT = 0x9E3779B97F4A7C15L;
+    private static final double LOAD_FACTOR = 0.75;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    /**
+     * @param expectedSize number of fingerprints that will be added
+     */
+    public FingerprintSet(int expectedSize) {
+        allocate(tableSizeFor((int) Math.min(1 << 30, (long) Math.ceil(Math.max(expectedSize, 16) / LOAD_FACTOR))));
+    }
+
+    public boolean add(long fingerprint) {
+        fingerprint = remap(fingerprint);
+        int slot = (int) mix(fingerprint) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = fingerprint;
+        if (++size > threshold) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long fingerprint) {
+        fingerprint = remap(fingerprint);
+        int slot = (int) mix(fingerprint) & mask;
+        long current;
+        while ((current = table[slot]) != EMPTY) {
+            if (current == fingerprint) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximated memory used by the set in bytes
+     */
+    public long memory() {
+        return table.length * 8L;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] old = table;
+        allocate(newCapacity);
+        for (long fingerprint : old) {
+            if (fingerprint != EMPTY) {
+                int slot = (int) mix(fingerprint) & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = fingerprint;
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return capacity < 0 ? 1 << 30 : capacity;
+    }
+
+    private static long remap(long fingerprint) {
+        return fingerprint == EMPTY ? ZERO_REPLACEMENT : fingerprint;
+    }
+
+    // The fingerprints are already hashes but the low bits are mixed again to spread the slots
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * 64-bit fingerprint of a string (FNV-1a followed by the murmur3 finalizer)
+     */
+    public static long fingerprint(CharSequence value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
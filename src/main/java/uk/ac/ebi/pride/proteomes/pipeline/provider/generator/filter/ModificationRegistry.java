@@ -0,0 +1,82 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.ebi.pride.proteomes.db.core.api.modification.Modification;
+import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationRepository;
+
+import javax.annotation.Resource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps in memory the ids of the modifications stored in the proteomes database, so the existence of a modification
+ * can be answered without a query. A new PRIDE Mod term found while processing is inserted when it is registered, in
+ * its own short transaction, and it is known only after that commit: the peptiforms that refer to it are written after
+ * the modification exists for every transaction (the chunks of the other threads and the ones of the
+ * BisectingItemWriter), and a chunk that is rolled back doesn't take the modification with it.
+ *
+ * It is safe to use from several threads, the registrations are serialized (new modifications are rare) and the insert
+ * is skipped when another job has already stored the modification. It needs to be registered as a listener of the
+ * steps that use it, to load the known modifications.
+ */
+public class ModificationRegistry implements StepExecutionListener {
+
+    private static final Log log = LogFactory.getLog(ModificationRegistry.class);
+
+    @Resource
+    private ModificationRepository modificationRepository;
+
+    private TransactionTemplate transactionTemplate;
+
+    private final ConcurrentMap<String, Boolean> known = new ConcurrentHashMap<String, Boolean>();
+
+    public boolean exists(String modId) {
+        return modId != null && known.containsKey(modId);
+    }
+
+    /**
+     * Stores a new modification if it is not in the database yet.
+     */
+    public synchronized void register(final Modification modification) {
+        final String modId = modification.getModId();
+        if (known.containsKey(modId)) {
+            return;
+        }
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                if (!modificationRepository.exists(modId)) {
+                    modificationRepository.save(modification);
+                    log.info("New modification " + modId + " stored in the database");
+                }
+            }
+        });
+        known.put(modId, Boolean.TRUE);
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        int before = known.size();
+        for (Modification modification : modificationRepository.findAll()) {
+            known.put(modification.getModId(), Boolean.TRUE);
+        }
+        log.info("Modification registry loaded with " + known.size() + " modifications (" + (known.size() - before) + " new)");
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+}
@@ -0,0 +1,186 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Answers if a peptide representation is already stored in the proteomes database without a query per peptiform.
+ *
+ * If the preload is enabled, the fingerprints of all the peptide representations are loaded at the beginning of the
+ * step (it has to be registered as a listener of the step) and only the fingerprint hits need to be confirmed against
+ * the database. If the table is bigger than the configured maximum the exact fingerprints would not fit in memory:
+ * a Bloom filter of them is loaded instead when it is enabled (about 10 bits per peptide, with ~1% of its misses
+ * confirmed against the database), otherwise the preload is skipped and the representations can be checked in bulk
+ * with {@link #findExisting(Collection)}.
+ */
+public class PeptideRepresentationIndex implements StepExecutionListener, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptideRepresentationIndex.class);
+
+    // Oracle does not allow more than 1000 elements in an IN list
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private String countQuery;
+
+    private String preloadQuery;
+
+    // It must contain a :representations named parameter
+    private String bulkQuery;
+
+    private boolean preload = false;
+
+    private int maxPreloadSize = 20000000;
+
+    //Above maxPreloadSize, preload a Bloom filter of the fingerprints instead of skipping the preload
+    private boolean bloomFilter = false;
+
+    private volatile FingerprintSet fingerprints;
+
+    private volatile FingerprintBloomFilter bloom;
+
+    public void beforeStep(StepExecution stepExecution) {
+        if (preload) {
+            load();
+        }
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        //The memory is released for the next steps
+        fingerprints = null;
+        bloom = null;
+        return null;
+    }
+
+    public synchronized void load() {
+        if (isLoaded()) {
+            return;
+        }
+
+        long count = jdbcTemplate.queryForObject(countQuery, Long.class);
+        if (count > maxPreloadSize) {
+            if (bloomFilter) {
+                loadBloomFilter(count);
+            } else {
+                log.warn("The peptide representations won't be preloaded, " + count + " rows exceed the maximum of " + maxPreloadSize);
+            }
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        final FingerprintSet set = new FingerprintSet((int) count);
+
+        jdbcTemplate.query(preloadQuery, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                set.add(FingerprintSet.fingerprint(rs.getString(1)));
+            }
+        });
+
+        fingerprints = set;
+
+        log.info("Preloaded " + set.size() + " peptide representation fingerprints (" + (set.memory() >> 20) + " MB) in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void loadBloomFilter(long count) {
+        long start = System.currentTimeMillis();
+        final FingerprintBloomFilter filter = new FingerprintBloomFilter((int) Math.min(Integer.MAX_VALUE, count), 10);
+
+        jdbcTemplate.query(preloadQuery, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                filter.add(FingerprintSet.fingerprint(rs.getString(1)));
+            }
+        });
+
+        bloom = filter;
+
+        log.info("Preloaded a Bloom filter of " + count + " peptide representation fingerprints ("
+                + (filter.memory() >> 20) + " MB) in " + (System.currentTimeMillis() - start) + " ms, "
+                + count + " rows exceed the maximum of " + maxPreloadSize + " for the exact fingerprints");
+    }
+
+    /**
+     * @return true if the fingerprints (or their Bloom filter) have been preloaded and {@link #mightContain(String)}
+     * can be used
+     */
+    public boolean isLoaded() {
+        return fingerprints != null || bloom != null;
+    }
+
+    /**
+     * @return false if the representation is not in the database, true if it may be (it needs to be confirmed)
+     */
+    public boolean mightContain(String representation) {
+        long fingerprint = FingerprintSet.fingerprint(representation);
+        FingerprintSet set = fingerprints;
+        return set != null ? set.contains(fingerprint) : bloom.mightContain(fingerprint);
+    }
+
+    /**
+     * @return the subset of the representations that are already stored in the database
+     */
+    public Set<String> findExisting(Collection<String> representations) {
+        Set<String> existing = new HashSet<String>();
+        List<String> all = new ArrayList<String>(representations);
+        for (int from = 0; from < all.size(); from += MAX_IN_LIST_SIZE) {
+            List<String> batch = all.subList(from, Math.min(all.size(), from + MAX_IN_LIST_SIZE));
+            existing.addAll(namedParameterJdbcTemplate.queryForList(bulkQuery,
+                    new MapSqlParameterSource("representations", batch), String.class));
+        }
+        return existing;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(countQuery, "A count query must be set");
+        Assert.hasText(preloadQuery, "A preload query must be set");
+        Assert.hasText(bulkQuery, "A bulk query must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(10000);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    public void setCountQuery(String countQuery) {
+        this.countQuery = countQuery;
+    }
+
+    public void setPreloadQuery(String preloadQuery) {
+        this.preloadQuery = preloadQuery;
+    }
+
+    public void setBulkQuery(String bulkQuery) {
+        this.bulkQuery = bulkQuery;
+    }
+
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+    }
+
+    public void setMaxPreloadSize(int maxPreloadSize) {
+        this.maxPreloadSize = maxPreloadSize;
+    }
+
+    public void setBloomFilter(boolean bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+}
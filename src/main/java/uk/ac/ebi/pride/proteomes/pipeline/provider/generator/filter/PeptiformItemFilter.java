@@ -1,31 +1,110 @@
 package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.filter;
 
+import org.springframework.batch.core.ItemReadListener;
 import org.springframework.batch.item.ItemProcessor;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.PeptideRepository;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * User: ntoro
  * Date: 06/12/2013
  * Time: 10:29
  */
-public class PeptiformItemFilter implements ItemProcessor<Peptiform, Peptiform> {
+public class PeptiformItemFilter implements ItemProcessor<Peptiform, Peptiform>, ItemReadListener<Peptiform> {
+
+    private static final MetricsRegistry.Counter DUPLICATES =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "duplicate");
+    private static final MetricsRegistry.Counter ALREADY_IN_DB =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "already_in_db");
 
     @Resource
     private PeptideRepository peptideRepository;
 
+    //Optional, without it every peptiform is checked against the database
+    private PeptideRepresentationIndex representationIndex;
+
+    //If the fingerprints are not preloaded, the representations of the chunk are checked with one query
+    private boolean bulkCheck = false;
+
     private Peptiform previousItem=null;
 
+    //Representations read in the current chunk that have not been checked yet
+    private final List<String> pending = new ArrayList<String>();
+    private final Set<String> checked = new HashSet<String>();
+    private final Set<String> existing = new HashSet<String>();
+    private boolean processing = false;
+
     public Peptiform process(Peptiform item) throws Exception {
 
+        processing = true;
+
         if (item.equals(previousItem)) {
             previousItem = item;
+            DUPLICATES.increment();
             return null;
         } else {
             previousItem = item;
-            return peptideRepository.findByPeptideRepresentation(item.getPeptideRepresentation()) == null ? item : null;
+            if (exists(item.getPeptideRepresentation())) {
+                ALREADY_IN_DB.increment();
+                return null;
+            }
+            return item;
+        }
+    }
+
+    private boolean exists(String representation) {
+        if (representationIndex != null) {
+            if (representationIndex.isLoaded()) {
+                if (!representationIndex.mightContain(representation)) {
+                    return false;
+                }
+                //Fingerprint hit, it needs to be confirmed
+            } else if (bulkCheck) {
+                if (!pending.isEmpty()) {
+                    existing.addAll(representationIndex.findExisting(pending));
+                    checked.addAll(pending);
+                    pending.clear();
+                }
+                if (checked.contains(representation)) {
+                    return existing.contains(representation);
+                }
+            }
+        }
+        return peptideRepository.findByPeptideRepresentation(representation) != null;
+    }
+
+    public void beforeRead() {
+    }
+
+    // Queues the representation for the IN query of the first exists() of the chunk. Without the index preloaded, a
+    // read after processing has started belongs to the next chunk, so the answers of the previous one are dropped
+    public void afterRead(Peptiform item) {
+        if (processing) {
+            pending.clear();
+            checked.clear();
+            existing.clear();
+            processing = false;
         }
+        if (bulkCheck && representationIndex != null && !representationIndex.isLoaded()) {
+            pending.add(item.getPeptideRepresentation());
+        }
+    }
+
+    public void onReadError(Exception ex) {
+    }
+
+    public void setRepresentationIndex(PeptideRepresentationIndex representationIndex) {
+        this.representationIndex = representationIndex;
+    }
+
+    public void setBulkCheck(boolean bulkCheck) {
+        this.bulkCheck = bulkCheck;
     }
 }
@@ -7,6 +7,7 @@ import uk.ac.ebi.pride.proteomes.db.core.api.modification.Modification;
 import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationLocation;
 import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationRepository;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
 import uk.ac.ebi.pridemod.ModReader;
 import uk.ac.ebi.pridemod.model.PRIDEModPTM;
 import uk.ac.ebi.pridemod.model.PTM;
@@ -22,10 +23,16 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
 
     private static final Log log = LogFactory.getLog(PeptiformItemInvalidModFilter.class);
 
+    private static final MetricsRegistry.Counter INVALID_MODS =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "invalid_mod");
+
 
     @Resource
     private ModificationRepository modificationRepository;
 
+    //Optional, without it every modification is checked and stored one by one
+    private ModificationRegistry modificationRegistry;
+
 
     public static final String SPLIT_CHAR = ":";
 
@@ -39,7 +46,7 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
             for (ModificationLocation modificationLocation : item.getModificationLocations()) {
                 String accession = modificationLocation.getModId();
 
-                if (!modificationRepository.exists(accession)) {
+                if (!exists(accession)) {
 
                     if (accession != null && !accession.isEmpty()) {
                         //We discover the "type" of modification (UNIMOD, MOD, CHEMMOD)
@@ -49,6 +56,7 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
 
                             log.warn("The provided modification " + accession + " is not properly formated");
                             log.warn("The peptiform " + item + " will be filtered.");
+                            INVALID_MODS.increment();
 
                             return null;
 
@@ -63,6 +71,7 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
                         if (ptm == null || !(ptm instanceof PRIDEModPTM)) {
                             log.warn("The provided modification " + accession + " cannot be found in the PRDMOD ontology.");
                             log.warn("The peptiform " + item + " will be filtered.");
+                            INVALID_MODS.increment();
 
                             return null;
                         }
@@ -74,7 +83,11 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
                         modification.setDescription(prideModPTM.getDescription());
                         modification.setMonoDelta(prideModPTM.getMonoDeltaMass());
                         modification.setBiologicalSignificant(prideModPTM.isBiologicalSignificance());
-                        modificationRepository.save(modification);
+                        if (modificationRegistry != null) {
+                            modificationRegistry.register(modification);
+                        } else {
+                            modificationRepository.save(modification);
+                        }
 
                     }
                 }
@@ -82,4 +95,12 @@ public class PeptiformItemInvalidModFilter implements ItemProcessor<Peptiform, P
         }
         return item;
     }
+
+    private boolean exists(String accession) {
+        return modificationRegistry != null ? modificationRegistry.exists(accession) : modificationRepository.exists(accession);
+    }
+
+    public void setModificationRegistry(ModificationRegistry modificationRegistry) {
+        this.modificationRegistry = modificationRegistry;
+    }
 }
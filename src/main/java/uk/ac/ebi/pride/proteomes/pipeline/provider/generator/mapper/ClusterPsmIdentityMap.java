@@ -0,0 +1,115 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper;
+
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canonical instances of the assays, clusters and accessions read from cluster_psm, so all the rows (and the
+ * peptiforms) that mention the same assay or cluster share the same object and the JpaItemWriter merges it only once
+ * per chunk. The maps keep the most recently used entries up to the configured sizes.
+ *
+ * It is meant to be step scoped: every partition has its own instance, which is released with the step. It is not
+ * thread safe.
+ */
+public class ClusterPsmIdentityMap {
+
+    private static final MetricsRegistry.Counter HITS =
+            MetricsRegistry.getInstance().counter("provider_identity_map_total", "result", "hit");
+
+    private static final MetricsRegistry.Counter MISSES =
+            MetricsRegistry.getInstance().counter("provider_identity_map_total", "result", "miss");
+
+    private int maxAssays = 100000;
+
+    private int maxClusters = 200000;
+
+    private Map<String, Assay> assays;
+
+    private Map<Long, Cluster> clusters;
+
+    private Map<String, String> accessions;
+
+    /**
+     * @return the assay of the accession, created with the project and taxid of the first row that mentions it
+     */
+    public Assay assay(String assayAccession, String projectAccession, int taxid) {
+        if (assayAccession == null) {
+            return newAssay(null, accession(projectAccession), taxid);
+        }
+        if (assays == null) {
+            assays = lruMap(maxAssays);
+        }
+        Assay assay = assays.get(assayAccession);
+        if (assay == null) {
+            MISSES.increment();
+            assay = newAssay(accession(assayAccession), accession(projectAccession), taxid);
+            assays.put(assay.getAssayAccession(), assay);
+        } else {
+            HITS.increment();
+        }
+        return assay;
+    }
+
+    public Cluster cluster(long clusterId) {
+        if (clusters == null) {
+            clusters = lruMap(maxClusters);
+        }
+        Cluster cluster = clusters.get(clusterId);
+        if (cluster == null) {
+            MISSES.increment();
+            cluster = new Cluster();
+            cluster.setClusterId(clusterId);
+            clusters.put(clusterId, cluster);
+        } else {
+            HITS.increment();
+        }
+        return cluster;
+    }
+
+    /**
+     * @return the canonical instance of an accession string
+     */
+    public String accession(String accession) {
+        if (accession == null) {
+            return null;
+        }
+        if (accessions == null) {
+            accessions = lruMap(maxAssays);
+        }
+        String canonical = accessions.get(accession);
+        if (canonical == null) {
+            accessions.put(accession, accession);
+            canonical = accession;
+        }
+        return canonical;
+    }
+
+    private static Assay newAssay(String assayAccession, String projectAccession, int taxid) {
+        Assay assay = new Assay();
+        assay.setAssayAccession(assayAccession);
+        assay.setProjectAccession(projectAccession);
+        assay.setTaxid(taxid);
+        return assay;
+    }
+
+    private static <K, V> Map<K, V> lruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public void setMaxAssays(int maxAssays) {
+        this.maxAssays = maxAssays;
+    }
+
+    public void setMaxClusters(int maxClusters) {
+        this.maxClusters = maxClusters;
+    }
+}
@@ -4,18 +4,18 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.RowMapper;
-import uk.ac.ebi.pride.jmztab.model.MZTabUtils;
 import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
 import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
 import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationLocation;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
 import uk.ac.ebi.pride.proteomes.db.core.api.utils.PeptideUtils;
 import uk.ac.ebi.pride.proteomes.db.core.api.utils.ScoreUtils;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+import uk.ac.ebi.pride.proteomes.pipeline.mods.ModificationParser;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashSet;
-import java.util.Set;
 import java.util.TreeSet;
 
 /**
@@ -35,51 +35,65 @@ public class PeptiformClusterRowMapper implements RowMapper<Peptiform>, Initiali
     private static final String CLUSTER_ID_COLUMN = "cluster_id";
     public static final String SPLIT_CHAR = ":";
 
+    //The modification is removed from the peptiform
+    private static final MetricsRegistry.Counter NEUTRAL_LOSSES =
+            MetricsRegistry.getInstance().counter("provider_filtered_total", "reason", "neutral_loss");
 
-    public Peptiform mapRow(ResultSet rs, int rowNum) throws SQLException {
+    //Canonical assays and clusters of the step (optional)
+    private ClusterPsmIdentityMap identityMap;
 
-        Peptiform peptiform = new Peptiform();
-        peptiform.setSequence(rs.getString(SEQUENCE_COLUMN));
-        peptiform.setTaxid(rs.getInt(TAXID_COLUMN));
 
+    public Peptiform mapRow(ResultSet rs, int rowNum) throws SQLException {
 
-        //Assay and Project
-        Assay assay = new Assay();
-        assay.setAssayAccession(rs.getString(ASSAY_ACC_COLUMN));
-        assay.setProjectAccession(rs.getString(PROJECT_ACC_COLUMN));
+        Peptiform peptiform = createPeptiform(rs.getString(SEQUENCE_COLUMN), rs.getInt(TAXID_COLUMN), rs.getString(MOD_COLUMN));
 
+        //Assay and Project
         //For now we are not allowing multispecies assays
         //TODO: allow multispecies at assay level
-        assay.setTaxid(rs.getInt(TAXID_COLUMN));
-
-        if(peptiform.getAssays()==null){
-            Set<Assay> assaySet = new HashSet<Assay>();
-            peptiform.setAssays(assaySet);
+        Assay assay;
+        if (identityMap != null) {
+            assay = identityMap.assay(rs.getString(ASSAY_ACC_COLUMN), rs.getString(PROJECT_ACC_COLUMN), rs.getInt(TAXID_COLUMN));
+        } else {
+            assay = new Assay();
+            assay.setAssayAccession(rs.getString(ASSAY_ACC_COLUMN));
+            assay.setProjectAccession(rs.getString(PROJECT_ACC_COLUMN));
+            assay.setTaxid(rs.getInt(TAXID_COLUMN));
         }
 
         peptiform.getAssays().add(assay);
 
-
-        //PeptideModifications
-        if(peptiform.getModificationLocations()==null){
-            TreeSet<ModificationLocation> modificationLocations = new TreeSet<ModificationLocation>();
-            peptiform.setModificationLocations(modificationLocations);
+        //Cluster Id
+        Cluster cluster;
+        if (identityMap != null) {
+            cluster = identityMap.cluster(rs.getLong(CLUSTER_ID_COLUMN));
+        } else {
+            cluster = new Cluster();
+            cluster.setClusterId(rs.getLong(CLUSTER_ID_COLUMN));
         }
 
-        String modColumn = rs.getString(MOD_COLUMN);
-        parseModifications(peptiform, modColumn);
+        peptiform.getClusters().add(cluster);
 
-        //Cluster Id
-        Cluster cluster = new Cluster();
-        cluster.setClusterId(rs.getLong(CLUSTER_ID_COLUMN));
+        return peptiform;
+    }
 
-        if(peptiform.getClusters()==null){
-            Set<Cluster> clusterSet = new HashSet<Cluster>();
-            peptiform.setClusters(clusterSet);
-        }
+    /**
+     * Creates a peptiform with its modifications and representation, and without assays and clusters
+     *
+     * @param modColumn raw string from the database (like  0-MOD:00394,10-MOD:00587)
+     */
+    public static Peptiform createPeptiform(String sequence, int taxid, String modColumn) {
 
-        peptiform.getClusters().add(cluster);
+        Peptiform peptiform = new Peptiform();
+        peptiform.setSequence(sequence);
+        peptiform.setTaxid(taxid);
 
+        peptiform.setAssays(new HashSet<Assay>());
+
+        //PeptideModifications
+        peptiform.setModificationLocations(new TreeSet<ModificationLocation>());
+        parseModifications(peptiform, modColumn);
+
+        peptiform.setClusters(new HashSet<Cluster>());
 
         peptiform.setScore(ScoreUtils.defaultScore());
 
@@ -94,6 +108,10 @@ public class PeptiformClusterRowMapper implements RowMapper<Peptiform>, Initiali
 
     }
 
+    public void setIdentityMap(ClusterPsmIdentityMap identityMap) {
+        this.identityMap = identityMap;
+    }
+
     /**
      * Transform the modification string to a ModificationLocation. It will filtered neutral losses
      *
@@ -107,10 +125,8 @@ public class PeptiformClusterRowMapper implements RowMapper<Peptiform>, Initiali
         if(modColumn!= null) {
 
 
-            modColumn = MZTabUtils.translateCommaToTab(modColumn);
             // 0-MOD:00394,10-MOD:00587  -> (0,MOD:00394)(10,MOD:00587)
-
-            String[] mods = modColumn.split(",");
+            String[] mods = ModificationParser.splitModifications(modColumn);
 
             for (String mod : mods) {
                 uk.ac.ebi.pride.proteomes.pipeline.mods.Modification mzTabMod = uk.ac.ebi.pride.proteomes.pipeline.mods.Modification.parseModification(mod);
@@ -121,13 +137,14 @@ public class PeptiformClusterRowMapper implements RowMapper<Peptiform>, Initiali
                 else{
                     if (mzTabMod.getNeutralLoss() != null){
                         log.warn("The modification contains a neutral loss: " + mzTabMod.getNeutralLoss() + ". It will be ignored.");
+                        NEUTRAL_LOSSES.increment();
                     }
                     else {
                         ModificationLocation pepMod = new ModificationLocation();
                         pepMod.setModId(mzTabMod.getType() + SPLIT_CHAR + mzTabMod.getAccession());
 
-                        if (mzTabMod.getPositionMap() != null && !mzTabMod.getPositionMap().isEmpty()) {
-                            pepMod.setPosition(mzTabMod.getPositionMap().entrySet().iterator().next().getKey());
+                        if (mzTabMod.hasPosition()) {
+                            pepMod.setPosition(mzTabMod.getFirstPosition());
                         }
                         else {
                             log.warn("The modification doesn't contain a position: " + mod + ". It will be reported as -1");
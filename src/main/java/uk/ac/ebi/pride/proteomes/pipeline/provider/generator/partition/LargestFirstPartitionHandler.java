@@ -0,0 +1,103 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.partition;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.partition.PartitionHandler;
+import org.springframework.batch.core.partition.StepExecutionSplitter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Equivalent to the TaskExecutorPartitionHandler, but the partitions are submitted to the task executor sorted by
+ * their estimated size (descending), so the biggest partitions start first and a single straggler does not dictate
+ * the total time of the step. The size is read from the partition execution context under {@link #sizeKey}.
+ */
+public class LargestFirstPartitionHandler implements PartitionHandler, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(LargestFirstPartitionHandler.class);
+
+    private Step step;
+
+    private TaskExecutor taskExecutor;
+
+    private int gridSize = 1;
+
+    private String sizeKey = PeptiformClusterPartitioner.ROW_COUNT_KEY;
+
+    public Collection<StepExecution> handle(StepExecutionSplitter stepSplitter, StepExecution masterStepExecution) throws Exception {
+
+        List<StepExecution> partitions = new ArrayList<StepExecution>(stepSplitter.split(masterStepExecution, gridSize));
+        Collections.sort(partitions, new Comparator<StepExecution>() {
+            public int compare(StepExecution o1, StepExecution o2) {
+                long size1 = o1.getExecutionContext().getLong(sizeKey, 0L);
+                long size2 = o2.getExecutionContext().getLong(sizeKey, 0L);
+                return size1 < size2 ? 1 : (size1 == size2 ? 0 : -1);
+            }
+        });
+
+        List<Future<StepExecution>> tasks = new ArrayList<Future<StepExecution>>(partitions.size());
+        Set<StepExecution> result = new HashSet<StepExecution>();
+
+        for (final StepExecution stepExecution : partitions) {
+            FutureTask<StepExecution> task = new FutureTask<StepExecution>(new Callable<StepExecution>() {
+                public StepExecution call() throws Exception {
+                    step.execute(stepExecution);
+                    return stepExecution;
+                }
+            });
+
+            try {
+                log.debug("Submitting " + stepExecution.getStepName() + " (~"
+                        + stepExecution.getExecutionContext().getLong(sizeKey, 0L) + " rows)");
+                taskExecutor.execute(task);
+                tasks.add(task);
+            } catch (TaskRejectedException e) {
+                // couldn't execute one of the tasks
+                ExitStatus exitStatus = ExitStatus.FAILED.addExitDescription("TaskExecutor rejected the task for this step.");
+                // Set the status in case the caller is tracking it through the JobExecution.
+                stepExecution.setStatus(BatchStatus.FAILED);
+                stepExecution.setExitStatus(exitStatus);
+                result.add(stepExecution);
+            }
+        }
+
+        for (Future<StepExecution> task : tasks) {
+            result.add(task.get());
+        }
+
+        return result;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(step, "A step must be set");
+        Assert.notNull(taskExecutor, "A task executor must be set");
+        Assert.isTrue(gridSize > 0, "The grid size must be positive");
+    }
+
+    public void setStep(Step step) {
+        this.step = step;
+    }
+
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public void setGridSize(int gridSize) {
+        this.gridSize = gridSize;
+    }
+
+    public void setSizeKey(String sizeKey) {
+        this.sizeKey = sizeKey;
+    }
+}
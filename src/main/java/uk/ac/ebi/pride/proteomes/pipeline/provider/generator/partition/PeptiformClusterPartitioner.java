@@ -0,0 +1,134 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.partition;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Splits the cluster_psm table in ranges that can be processed in parallel by the peptiform generator.
+ *
+ * All the rows of a peptiform (sequence + taxid + mods) must be read by the same partition, otherwise the grouping done
+ * by the PeptiformItemClusterReader is broken. For that reason the table is split by taxid ranges and, for the big
+ * species (e.g. human), by buckets of a hash of the sequence. Every partition stores its estimated number of rows
+ * so the biggest ones can be scheduled first.
+ */
+public class PeptiformClusterPartitioner implements Partitioner, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptiformClusterPartitioner.class);
+
+    public static final String MIN_TAXID_KEY = "minTaxid";
+    public static final String MAX_TAXID_KEY = "maxTaxid";
+    public static final String BUCKETS_KEY = "buckets";
+    public static final String BUCKET_KEY = "bucket";
+    public static final String ROW_COUNT_KEY = "rowCount";
+
+    private static final String PARTITION_PREFIX = "partition";
+
+    private static final String COUNT_QUERY =
+            "select taxid, count(*) from cluster_psm group by taxid order by taxid";
+
+    private JdbcTemplate jdbcTemplate;
+
+    // Upper limit of hash buckets in which a single species can be split
+    private int maxBuckets = 64;
+
+    public Map<String, ExecutionContext> partition(int gridSize) {
+
+        final SortedMap<Integer, Long> countsByTaxid = new TreeMap<Integer, Long>();
+        jdbcTemplate.query(COUNT_QUERY, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                countsByTaxid.put(rs.getInt(1), rs.getLong(2));
+            }
+        });
+
+        long total = 0;
+        for (Long count : countsByTaxid.values()) {
+            total += count;
+        }
+
+        long target = Math.max(1, total / Math.max(1, gridSize));
+        log.info("Partitioning " + total + " rows from " + countsByTaxid.size() + " species in chunks of ~" + target + " rows");
+
+        Map<String, ExecutionContext> result = new HashMap<String, ExecutionContext>();
+
+        //Small species are packed together in contiguous taxid ranges, big ones are split by sequence hash
+        Integer rangeStart = null;
+        Integer rangeEnd = null;
+        long rangeCount = 0;
+
+        for (Map.Entry<Integer, Long> entry : countsByTaxid.entrySet()) {
+            int taxid = entry.getKey();
+            long count = entry.getValue();
+
+            if (count >= target) {
+                if (rangeStart != null) {
+                    addPartition(result, rangeStart, rangeEnd, 1, 0, rangeCount);
+                    rangeStart = null;
+                    rangeCount = 0;
+                }
+                int buckets = (int) Math.min(maxBuckets, (count + target - 1) / target);
+                for (int bucket = 0; bucket < buckets; bucket++) {
+                    addPartition(result, taxid, taxid, buckets, bucket, count / buckets);
+                }
+            } else {
+                if (rangeStart != null && rangeCount + count > target) {
+                    addPartition(result, rangeStart, rangeEnd, 1, 0, rangeCount);
+                    rangeStart = null;
+                    rangeCount = 0;
+                }
+                if (rangeStart == null) {
+                    rangeStart = taxid;
+                }
+                rangeEnd = taxid;
+                rangeCount += count;
+            }
+        }
+
+        if (rangeStart != null) {
+            addPartition(result, rangeStart, rangeEnd, 1, 0, rangeCount);
+        }
+
+        log.info("Created " + result.size() + " partitions for a grid size of " + gridSize);
+
+        return result;
+    }
+
+    private static void addPartition(Map<String, ExecutionContext> partitions, int minTaxid, int maxTaxid,
+                                     int buckets, int bucket, long rowCount) {
+
+        ExecutionContext context = new ExecutionContext();
+        context.putInt(MIN_TAXID_KEY, minTaxid);
+        context.putInt(MAX_TAXID_KEY, maxTaxid);
+        context.putInt(BUCKETS_KEY, buckets);
+        context.putInt(BUCKET_KEY, bucket);
+        context.putLong(ROW_COUNT_KEY, rowCount);
+
+        String name = PARTITION_PREFIX + partitions.size();
+        log.debug(name + ": taxid [" + minTaxid + ", " + maxTaxid + "] bucket " + bucket + "/" + buckets + " ~" + rowCount + " rows");
+
+        partitions.put(name, context);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.isTrue(maxBuckets > 0, "The maximum number of buckets must be positive");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setMaxBuckets(int maxBuckets) {
+        this.maxBuckets = maxBuckets;
+    }
+}
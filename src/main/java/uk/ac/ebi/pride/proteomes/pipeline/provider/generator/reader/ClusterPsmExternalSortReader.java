@@ -0,0 +1,438 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.ClusterPsm;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sorts locally the rows of an unsorted reader of cluster_psm (e.g. a JdbcCursorItemReader without order by), so
+ * the database doesn't sort the whole table before returning the first row. The rows are returned in the order of the
+ * generator query: sequence, taxid, mods (nulls last), cluster_id, project_accession and assay_accession.
+ *
+ * The rows are buffered up to half of the memory budget, sorted and written to a compressed run on disk by a
+ * background thread while the next buffer is filled. The runs (and the last buffer, kept in memory) are then merged.
+ * An open run costs its stream buffers and inflater (RUN_MEMORY), so the runs merged at once are limited by the budget
+ * left by the last buffer and by maxFanIn (open files): with more runs they are merged in intermediate passes on disk
+ * first, and the last buffer is spilled too if it doesn't leave room for merging two runs.
+ * The sort is done when the reader is opened, on a restart it is repeated and the rows already read are skipped. A
+ * seek is passed to the delegate if it is a {@link SeekableReader}, so only the rows after it are sorted.
+ */
+public class ClusterPsmExternalSortReader extends AbstractItemCountingItemStreamItemReader<ClusterPsm>
+        implements SeekableReader, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ClusterPsmExternalSortReader.class);
+
+    private static final MetricsRegistry.Counter SPILLS =
+            MetricsRegistry.getInstance().counter("provider_generator_sort_spills_total");
+
+    private static final MetricsRegistry.Counter MERGES =
+            MetricsRegistry.getInstance().counter("provider_generator_sort_intermediate_merges_total");
+
+    // Approximate size in memory of a row without its strings
+    private static final int ROW_OVERHEAD = 120;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Approximate memory of a run on disk while it is merged: the buffered and inflater streams, and the inflater
+    private static final long RUN_MEMORY = 2L * BUFFER_SIZE + (64 << 10);
+
+    /**
+     * Order of the generator query. The cluster ids are compared as numbers
+     */
+    public static final Comparator<ClusterPsm> ORDER = new Comparator<ClusterPsm>() {
+        public int compare(ClusterPsm a, ClusterPsm b) {
+            int result = compareNullsLast(a.getSequence(), b.getSequence());
+            if (result != 0) {
+                return result;
+            }
+            int taxidA = a.getTaxid();
+            int taxidB = b.getTaxid();
+            if (taxidA != taxidB) {
+                return taxidA < taxidB ? -1 : 1;
+            }
+            result = compareNullsLast(a.getModifications(), b.getModifications());
+            if (result != 0) {
+                return result;
+            }
+            result = compareNumbers(a.getClusterId(), b.getClusterId());
+            if (result != 0) {
+                return result;
+            }
+            result = compareNullsLast(a.getProjectAccession(), b.getProjectAccession());
+            if (result != 0) {
+                return result;
+            }
+            return compareNullsLast(a.getAssayAccession(), b.getAssayAccession());
+        }
+    };
+
+    //Unsorted rows
+    private ItemStreamReader<ClusterPsm> delegate;
+
+    private long memoryBudget = 512L * 1024 * 1024;
+
+    // Maximum number of runs on disk merged at once (open files)
+    private int maxFanIn = 64;
+
+    //Null for the default temporary directory
+    private File spillDirectory;
+
+    private final List<File> spills = new ArrayList<File>();
+
+    private final List<Run> runs = new ArrayList<Run>();
+
+    private PriorityQueue<Run> queue;
+
+    public ClusterPsmExternalSortReader() {
+        setName(ClassUtils.getShortName(ClusterPsmExternalSortReader.class));
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        long start = System.currentTimeMillis();
+
+        ExecutorService spiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, Thread.currentThread().getName() + "-sort-spill");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long total = 0;
+        List<ClusterPsm> buffer = new ArrayList<ClusterPsm>();
+        long bufferBytes = 0;
+        try {
+            delegate.open(new ExecutionContext());
+            Future<File> pending = null;
+            ClusterPsm row;
+            while ((row = delegate.read()) != null) {
+                buffer.add(row);
+                total++;
+                bufferBytes += size(row);
+                if (bufferBytes >= memoryBudget / 2) {
+                    //Only one buffer is spilled while the next one is filled
+                    if (pending != null) {
+                        spills.add(pending.get());
+                    }
+                    pending = spiller.submit(new Spill(buffer, spillDirectory));
+                    buffer = new ArrayList<ClusterPsm>(buffer.size());
+                    bufferBytes = 0;
+                }
+            }
+            if (pending != null) {
+                spills.add(pending.get());
+            }
+        } finally {
+            spiller.shutdownNow();
+            delegate.close();
+        }
+
+        //The last buffer is kept for the final merge, it needs room for at least two runs on disk
+        if (!spills.isEmpty() && memoryBudget - bufferBytes < 2 * RUN_MEMORY) {
+            spills.add(new Spill(buffer, spillDirectory).call());
+            buffer = new ArrayList<ClusterPsm>();
+            bufferBytes = 0;
+        }
+        int fanIn = fanIn(bufferBytes);
+        int merges = 0;
+        while (spills.size() > fanIn) {
+            List<File> group = new ArrayList<File>(spills.subList(0, fanIn));
+            spills.subList(0, fanIn).clear();
+            spills.add(merge(group, spillDirectory));
+            merges++;
+        }
+
+        Collections.sort(buffer, ORDER);
+        queue = new PriorityQueue<Run>(spills.size() + 1);
+        for (File spill : spills) {
+            addRun(new Run(spill));
+        }
+        addRun(new Run(buffer));
+
+        log.info("Sorted " + total + " rows in " + (System.currentTimeMillis() - start) + " ms with "
+                + spills.size() + " runs on disk (" + merges + " intermediate merges of " + fanIn + " runs)");
+    }
+
+    /**
+     * @return the number of runs on disk that can be merged at once with the memory left by the retained rows
+     */
+    private int fanIn(long retainedBytes) {
+        return (int) Math.max(2, Math.min(maxFanIn, (memoryBudget - retainedBytes) / RUN_MEMORY));
+    }
+
+    /**
+     * Merges sorted runs on disk in a new one, the merged runs are deleted
+     */
+    private static File merge(List<File> files, File directory) throws IOException {
+        final PriorityQueue<Run> mergeQueue = new PriorityQueue<Run>(files.size());
+        List<Run> open = new ArrayList<Run>(files.size());
+        int count = 0;
+        try {
+            for (File file : files) {
+                Run run = new Run(file);
+                open.add(run);
+                count += run.remaining;
+                if (run.advance()) {
+                    mergeQueue.add(run);
+                }
+            }
+            File merged = write(new Iterator<ClusterPsm>() {
+                public boolean hasNext() {
+                    return !mergeQueue.isEmpty();
+                }
+
+                public ClusterPsm next() {
+                    Run run = mergeQueue.poll();
+                    ClusterPsm row = run.current;
+                    try {
+                        if (run.advance()) {
+                            mergeQueue.add(run);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException("The sort run cannot be read", e);
+                    }
+                    return row;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }, count, directory);
+            MERGES.increment();
+            log.debug("Merged " + files.size() + " sorted runs of " + count + " rows in " + merged);
+            return merged;
+        } finally {
+            for (Run run : open) {
+                run.close();
+            }
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warn("The sort run " + file + " cannot be deleted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes sorted rows to a compressed run
+     */
+    private static File write(Iterator<ClusterPsm> rows, int count, File directory) throws IOException {
+        File file = File.createTempFile("cluster-psm-run-", ".gz", directory);
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+        try {
+            out.writeInt(count);
+            while (rows.hasNext()) {
+                ClusterPsm row = rows.next();
+                writeString(out, row.getSequence());
+                out.writeInt(row.getTaxid());
+                writeString(out, row.getModifications());
+                writeString(out, row.getAssayAccession());
+                writeString(out, row.getProjectAccession());
+                writeString(out, row.getClusterId());
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    public void seek(String sequence, int taxid) {
+        if (delegate instanceof SeekableReader) {
+            ((SeekableReader) delegate).seek(sequence, taxid);
+        }
+    }
+
+    private void addRun(Run run) throws IOException {
+        runs.add(run);
+        if (run.advance()) {
+            queue.add(run);
+        }
+    }
+
+    @Override
+    protected ClusterPsm doRead() throws Exception {
+        Run run = queue.poll();
+        if (run == null) {
+            return null;
+        }
+        ClusterPsm row = run.current;
+        if (run.advance()) {
+            queue.add(run);
+        }
+        return row;
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        for (Run run : runs) {
+            run.close();
+        }
+        runs.clear();
+        queue = null;
+        for (File spill : spills) {
+            if (!spill.delete()) {
+                log.warn("The sort run " + spill + " cannot be deleted");
+            }
+        }
+        spills.clear();
+    }
+
+    private static long size(ClusterPsm row) {
+        return ROW_OVERHEAD + 2L * (length(row.getSequence()) + length(row.getModifications())
+                + length(row.getAssayAccession()) + length(row.getProjectAccession()) + length(row.getClusterId()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static int compareNullsLast(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : 1;
+        }
+        return b == null ? -1 : a.compareTo(b);
+    }
+
+    //Non negative integers without leading zeros
+    private static int compareNumbers(String a, String b) {
+        if (a == null || b == null) {
+            return compareNullsLast(a, b);
+        }
+        if (a.length() != b.length()) {
+            return a.length() < b.length() ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Sorts a buffer and writes it to a compressed file
+     */
+    private static class Spill implements Callable<File> {
+
+        private final List<ClusterPsm> buffer;
+        private final File directory;
+
+        Spill(List<ClusterPsm> buffer, File directory) {
+            this.buffer = buffer;
+            this.directory = directory;
+        }
+
+        public File call() throws Exception {
+            Collections.sort(buffer, ORDER);
+            File file = write(buffer.iterator(), buffer.size(), directory);
+            SPILLS.increment();
+            log.debug("Spilled a sorted run of " + buffer.size() + " rows to " + file);
+            return file;
+        }
+    }
+
+    /**
+     * Sorted run of rows, from a spill file or from memory
+     */
+    private static class Run implements Comparable<Run> {
+
+        private final DataInputStream in;
+        private final Iterator<ClusterPsm> iterator;
+        private int remaining;
+        private ClusterPsm current;
+
+        Run(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+            iterator = null;
+            remaining = in.readInt();
+        }
+
+        Run(List<ClusterPsm> rows) {
+            in = null;
+            iterator = rows.iterator();
+            remaining = rows.size();
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            if (iterator != null) {
+                current = iterator.next();
+            } else {
+                ClusterPsm row = new ClusterPsm();
+                row.setSequence(readString(in));
+                row.setTaxid(in.readInt());
+                row.setModifications(readString(in));
+                row.setAssayAccession(readString(in));
+                row.setProjectAccession(readString(in));
+                row.setClusterId(readString(in));
+                current = row;
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        public int compareTo(Run o) {
+            return ORDER.compare(current, o.current);
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(delegate, "An ItemStreamReader as delegate must be set");
+        Assert.isTrue(memoryBudget > 0, "The memory budget must be positive");
+        Assert.isTrue(maxFanIn >= 2, "At least two runs must be merged at once");
+    }
+
+    public void setDelegate(ItemStreamReader<ClusterPsm> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param memoryBudgetMb approximate memory used by the buffers in MB
+     */
+    public void setMemoryBudgetMb(int memoryBudgetMb) {
+        this.memoryBudget = memoryBudgetMb * 1024L * 1024L;
+    }
+
+    public void setMaxFanIn(int maxFanIn) {
+        this.maxFanIn = maxFanIn;
+    }
+
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+}
@@ -0,0 +1,262 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.batch.item.util.ExecutionContextUserSupport;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Paging reader for JPA entities that uses the seek method instead of offsets: every page is requested with
+ * "where key > :lastKey order by key", so the cost of a page doesn't depend on its position and the pages are stable
+ * even if the step writes in the same table. The key must be the identifier of the entity.
+ *
+ * The page is read in two queries: the keys of the page (limited to the page size) and then the entities of those
+ * keys, so the associations listed in {@link #setFetchJoins(List)} (or the entity graph) are loaded in the same query
+ * without paging in memory. Fetching several collections in one query returns their cartesian product, so the
+ * collections of the associated entities can be loaded instead with the {@link #setCollectionQueries(List)}, one query
+ * per collection bound with the same :keys, before the page is detached. As the JpaPagingItemReader without
+ * transaction, the entities are detached once read.
+ *
+ * The key of the last item returned is saved in the execution context, so a restart continues after it.
+ */
+public class JpaKeysetPagingItemReader<T> extends AbstractItemCountingItemStreamItemReader<T> implements InitializingBean {
+
+    private static final Log log = LogFactory.getLog(JpaKeysetPagingItemReader.class);
+
+    private static final String LAST_KEY = "lastKey";
+
+    private static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+    private final ExecutionContextUserSupport ecSupport = new ExecutionContextUserSupport();
+
+    private EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+
+    private PersistenceUnitUtil persistenceUnitUtil;
+
+    private String entityName;
+
+    private String alias = "e";
+
+    private String keyProperty;
+
+    // Extra condition of the query (using the alias)
+    private String whereClause;
+
+    // Association paths (with optional alias) loaded with a left join fetch, e.g. "e.assays a", "a.cellTypes"
+    private List<String> fetchJoins = Collections.emptyList();
+
+    // Queries with a :keys parameter run after the entities, e.g. "select distinct a from Peptiform p join p.assays a
+    // left join fetch a.cellTypes where p.peptideId in :keys" initializes the cell types of the loaded assays
+    private List<String> collectionQueries = Collections.emptyList();
+
+    // Name of an entity graph used as fetch graph
+    private String entityGraph;
+
+    private int pageSize = 1000;
+
+    private boolean saveState = true;
+
+    private String firstKeysQuery;
+
+    private String nextKeysQuery;
+
+    private String entitiesQuery;
+
+    private Object lastKey;
+
+    private List<T> page = Collections.emptyList();
+
+    private int current = 0;
+
+    private boolean exhausted = false;
+
+    public JpaKeysetPagingItemReader() {
+        setName(ClassUtils.getShortName(JpaKeysetPagingItemReader.class));
+    }
+
+    @Override
+    protected T doRead() throws Exception {
+        if (current >= page.size()) {
+            if (exhausted) {
+                return null;
+            }
+            readPage();
+            if (page.isEmpty()) {
+                return null;
+            }
+        }
+        T item = page.get(current++);
+        lastKey = persistenceUnitUtil.getIdentifier(item);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readPage() {
+
+        //The entities of the previous page have been detached
+        entityManager.clear();
+
+        Query keysQuery;
+        if (lastKey == null) {
+            keysQuery = entityManager.createQuery(firstKeysQuery);
+        } else {
+            keysQuery = entityManager.createQuery(nextKeysQuery).setParameter(LAST_KEY, lastKey);
+        }
+        List<Object> keys = keysQuery.setMaxResults(pageSize).getResultList();
+        exhausted = keys.size() < pageSize;
+        current = 0;
+
+        if (keys.isEmpty()) {
+            page = Collections.emptyList();
+            return;
+        }
+
+        Query query = entityManager.createQuery(entitiesQuery).setParameter("keys", keys);
+        if (entityGraph != null) {
+            query.setHint(FETCH_GRAPH_HINT, entityManager.getEntityGraph(entityGraph));
+        }
+
+        List<T> entities = query.getResultList();
+        //The entities are still managed, the fetched collections are set in the same instances
+        for (String collectionQuery : collectionQueries) {
+            entityManager.createQuery(collectionQuery).setParameter("keys", keys).getResultList();
+        }
+        page = new ArrayList<T>(entities.size());
+        for (T entity : entities) {
+            entityManager.detach(entity);
+            page.add(entity);
+        }
+
+        log.debug("Read page of " + page.size() + " " + entityName + " after key " + lastKey);
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        entityManager = entityManagerFactory.createEntityManager();
+        if (entityManager == null) {
+            throw new ItemStreamException("Error creating an EntityManager");
+        }
+        persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+
+        String key = alias + "." + keyProperty;
+        String from = " from " + entityName + " " + alias;
+        String where = whereClause != null && !whereClause.trim().isEmpty() ? "(" + whereClause + ")" : null;
+
+        firstKeysQuery = "select " + key + from + (where != null ? " where " + where : "") + " order by " + key;
+        nextKeysQuery = "select " + key + from + " where " + (where != null ? where + " and " : "")
+                + key + " > :" + LAST_KEY + " order by " + key;
+
+        StringBuilder sb = new StringBuilder("select distinct ").append(alias).append(from);
+        for (String fetchJoin : fetchJoins) {
+            sb.append(" left join fetch ").append(fetchJoin);
+        }
+        sb.append(" where ").append(key).append(" in :keys order by ").append(key);
+        entitiesQuery = sb.toString();
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        if (entityManager != null) {
+            entityManager.close();
+        }
+        page = Collections.emptyList();
+        current = 0;
+        exhausted = false;
+        lastKey = null;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        super.open(executionContext);
+        if (executionContext.containsKey(ecSupport.getKey(LAST_KEY))) {
+            lastKey = executionContext.get(ecSupport.getKey(LAST_KEY));
+            log.info("Restarting " + entityName + " reader after key " + lastKey);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (saveState && lastKey != null) {
+            executionContext.put(ecSupport.getKey(LAST_KEY), lastKey);
+        }
+    }
+
+    /**
+     * The items are not skipped one by one on restart, the reader seeks directly after the last key
+     */
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(entityManagerFactory, "An EntityManagerFactory must be set");
+        Assert.hasText(entityName, "An entity name must be set");
+        Assert.hasText(keyProperty, "A key property must be set");
+        //The keys of the page are used in an IN list, Oracle does not allow more than 1000 elements
+        Assert.isTrue(pageSize > 0 && pageSize <= 1000, "The page size must be between 1 and 1000");
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        ecSupport.setName(name);
+    }
+
+    @Override
+    public void setSaveState(boolean saveState) {
+        super.setSaveState(saveState);
+        this.saveState = saveState;
+    }
+
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    public void setEntityName(String entityName) {
+        this.entityName = entityName;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    public void setKeyProperty(String keyProperty) {
+        this.keyProperty = keyProperty;
+    }
+
+    public void setWhereClause(String whereClause) {
+        this.whereClause = whereClause;
+    }
+
+    public void setFetchJoins(List<String> fetchJoins) {
+        this.fetchJoins = fetchJoins;
+    }
+
+    public void setCollectionQueries(List<String> collectionQueries) {
+        this.collectionQueries = collectionQueries;
+    }
+
+    public void setEntityGraph(String entityGraph) {
+        this.entityGraph = entityGraph;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+}
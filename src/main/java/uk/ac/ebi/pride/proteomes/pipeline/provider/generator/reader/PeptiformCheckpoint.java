@@ -0,0 +1,83 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.springframework.batch.item.ExecutionContext;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+
+/**
+ * Last peptiform emitted by a grouping reader of cluster_psm, saved in the execution context at every commit. On a
+ * restart the rows are read again from the first row of its sequence and species (with a {@link SeekableReader} the
+ * database seeks straight to it) and the groups up to the checkpoint are discarded, so the group that straddled the
+ * failure is neither split nor duplicated.
+ */
+public class PeptiformCheckpoint {
+
+    private static final String SEQUENCE_KEY = "peptiformCheckpoint.sequence";
+    private static final String TAXID_KEY = "peptiformCheckpoint.taxid";
+    private static final String REPRESENTATION_KEY = "peptiformCheckpoint.representation";
+
+    private final String sequence;
+    private final int taxid;
+    private final String representation;
+
+    public PeptiformCheckpoint(Peptiform peptiform) {
+        this(peptiform.getSequence(), peptiform.getTaxid(), peptiform.getPeptideRepresentation());
+    }
+
+    private PeptiformCheckpoint(String sequence, int taxid, String representation) {
+        this.sequence = sequence;
+        this.taxid = taxid;
+        this.representation = representation;
+    }
+
+    /**
+     * @return the checkpoint saved in the context or null if there isn't any
+     */
+    public static PeptiformCheckpoint read(ExecutionContext executionContext) {
+        if (!executionContext.containsKey(REPRESENTATION_KEY)) {
+            return null;
+        }
+        return new PeptiformCheckpoint(executionContext.getString(SEQUENCE_KEY), executionContext.getInt(TAXID_KEY),
+                executionContext.getString(REPRESENTATION_KEY));
+    }
+
+    public void write(ExecutionContext executionContext) {
+        executionContext.putString(SEQUENCE_KEY, sequence);
+        executionContext.putInt(TAXID_KEY, taxid);
+        executionContext.putString(REPRESENTATION_KEY, representation);
+    }
+
+    /**
+     * @return true if the rows of the sequence and species come before the ones of the checkpoint
+     */
+    public boolean isBefore(String sequence, int taxid) {
+        int result = sequence.compareTo(this.sequence);
+        return result < 0 || (result == 0 && taxid < this.taxid);
+    }
+
+    /**
+     * @return true if the peptiform has the sequence and species of the checkpoint
+     */
+    public boolean sameSequence(Peptiform peptiform) {
+        return sequence.equals(peptiform.getSequence()) && taxid == peptiform.getTaxid();
+    }
+
+    /**
+     * @return true if the peptiform is the one of the checkpoint
+     */
+    public boolean matches(Peptiform peptiform) {
+        return sameSequence(peptiform) && representation.equals(peptiform.getPeptideRepresentation());
+    }
+
+    public String getSequence() {
+        return sequence;
+    }
+
+    public int getTaxid() {
+        return taxid;
+    }
+
+    @Override
+    public String toString() {
+        return representation + " (taxid " + taxid + ")";
+    }
+}
@@ -0,0 +1,457 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.*;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.ClusterPsm;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+import uk.ac.ebi.pride.proteomes.db.core.api.utils.ScoreUtils;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper.ClusterPsmIdentityMap;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.mapper.PeptiformClusterRowMapper;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Groups the rows of cluster_psm in peptiforms like {@link PeptiformItemClusterReader}, but the peptiform is only
+ * built (modifications parsed and representation generated) for the first row of a group. The rows that continue the
+ * group (same sequence, species and mods column) only contribute their assay and cluster keys, which are kept as the
+ * index of the assay in a dictionary of the step (a BitSet per group) and as primitive cluster ids. Assay and Cluster
+ * instances are created once per distinct key when the group is finished.
+ *
+ * The rows must be sorted by sequence, taxid, mods and cluster_id. When a group has more than maxClustersInMemory
+ * distinct clusters, the sorted ids are spilled to a temporary file and merged back at the end of the group.
+ *
+ * The last peptiform returned is saved as a {@link PeptiformCheckpoint} instead of the position of the delegate (which
+ * has already read the first row of the next group). On a restart the delegate is opened from the start, or from the
+ * sequence of the checkpoint if it is a {@link SeekableReader}, and the groups up to the checkpoint are skipped.
+ */
+public class PeptiformClusterPsmGroupingReader implements ItemStreamReader<Peptiform>, InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PeptiformClusterPsmGroupingReader.class);
+
+    private static final MetricsRegistry.Counter SPILLS =
+            MetricsRegistry.getInstance().counter("provider_generator_group_spills_total");
+
+    //Any reader of rows sorted by sequence, taxid, mods and cluster_id (e.g. a JdbcCursorItemReader with a PsmsClusterRowMapper)
+    private ItemStreamReader<ClusterPsm> delegate;
+
+    private int maxClustersInMemory = 1000000;
+
+    //Null for the default temporary directory
+    private File spillDirectory;
+
+    //Canonical assays and clusters of the step (optional)
+    private ClusterPsmIdentityMap identityMap;
+
+    //Assays of the step, the groups refer to them by their index
+    private final Map<String, Integer> assayIndexes = new HashMap<String, Integer>();
+    private final List<String> assayAccessions = new ArrayList<String>();
+    private final List<String> projectAccessions = new ArrayList<String>();
+
+    //Current group
+    private Peptiform result;
+    private String sequence;
+    private int taxid;
+    private String mods;
+    private int groupRows;
+    private final BitSet assays = new BitSet();
+    private long[] clusters = new long[64];
+    private int clusterCount = 0;
+    private final List<File> spills = new ArrayList<File>();
+
+    //Rows of the group being built (and the biggest group), per step or partition. Relabelled when it is opened
+    private MetricsRegistry.Gauge groupRowsGauge = groupRowsGauge(null);
+
+    //First row of the next group and its peptiform
+    private ClusterPsm next;
+    private Peptiform nextPeptiform;
+
+    //Last peptiform returned, and the one to skip to after a restart
+    private PeptiformCheckpoint checkpoint;
+    private PeptiformCheckpoint resumeFrom;
+
+
+    public Peptiform read() throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
+        if (resumeFrom != null) {
+            skipToCheckpoint();
+        }
+        Peptiform peptiform = readGroup();
+        if (peptiform != null) {
+            checkpoint = new PeptiformCheckpoint(peptiform);
+        }
+        return peptiform;
+    }
+
+    /**
+     * Skips the rows before the sequence of the checkpoint (if the delegate didn't seek to it) and the groups of the
+     * sequence up to the one of the checkpoint
+     */
+    private void skipToCheckpoint() throws Exception {
+        PeptiformCheckpoint target = resumeFrom;
+        resumeFrom = null;
+
+        ClusterPsm row;
+        long skippedRows = 0;
+        while ((row = delegate.read()) != null && target.isBefore(row.getSequence(), row.getTaxid())) {
+            skippedRows++;
+        }
+        if (row == null) {
+            return;
+        }
+        next = row;
+        nextPeptiform = PeptiformClusterRowMapper.createPeptiform(row.getSequence(), row.getTaxid(), row.getModifications());
+
+        int skippedGroups = 0;
+        while (nextPeptiform != null && target.sameSequence(nextPeptiform)) {
+            Peptiform skipped = readGroup();
+            skippedGroups++;
+            if (target.matches(skipped)) {
+                break;
+            }
+        }
+        log.info("Resumed after " + target + ", skipped " + skippedRows + " rows and " + skippedGroups + " peptiforms");
+    }
+
+    private Peptiform readGroup() throws Exception {
+
+        ClusterPsm row = next;
+        Peptiform peptiform = nextPeptiform;
+        next = null;
+        nextPeptiform = null;
+
+        if (row == null) {
+            row = delegate.read();
+            if (row == null) {
+                return null;
+            }
+            peptiform = PeptiformClusterRowMapper.createPeptiform(row.getSequence(), row.getTaxid(), row.getModifications());
+        }
+
+        start(row, peptiform);
+
+        while ((row = delegate.read()) != null) {
+            if (!continuesGroup(row)) {
+                peptiform = PeptiformClusterRowMapper.createPeptiform(row.getSequence(), row.getTaxid(), row.getModifications());
+                if (!peptiform.getPeptideRepresentation().equals(result.getPeptideRepresentation())) {
+                    next = row;
+                    nextPeptiform = peptiform;
+                    break;
+                }
+                //Same peptiform with a different mods column (e.g. the neutral losses are removed)
+                mods = row.getModifications();
+            }
+            add(row);
+        }
+
+        return finish();
+    }
+
+    private boolean continuesGroup(ClusterPsm row) {
+        return sequence.equals(row.getSequence())
+                && taxid == row.getTaxid()
+                && ObjectUtils.nullSafeEquals(mods, row.getModifications());
+    }
+
+    private void start(ClusterPsm row, Peptiform peptiform) {
+        result = peptiform;
+        sequence = row.getSequence();
+        taxid = row.getTaxid();
+        mods = row.getModifications();
+        groupRows = 0;
+        add(row);
+    }
+
+    private void add(ClusterPsm row) {
+        groupRowsGauge.set(++groupRows);
+
+        Integer assayIndex = assayIndexes.get(row.getAssayAccession());
+        if (assayIndex == null) {
+            assayIndex = assayAccessions.size();
+            assayIndexes.put(row.getAssayAccession(), assayIndex);
+            assayAccessions.add(row.getAssayAccession());
+            projectAccessions.add(row.getProjectAccession());
+        }
+        assays.set(assayIndex);
+
+        //The clusters of a group come sorted, so most of the duplicates are consecutive
+        long clusterId = Long.parseLong(row.getClusterId());
+        if (clusterCount > 0 && clusters[clusterCount - 1] == clusterId) {
+            return;
+        }
+        if (clusterCount == clusters.length) {
+            if (clusterCount >= maxClustersInMemory) {
+                clusterCount = sortDistinct(clusters, clusterCount);
+                if (clusterCount > maxClustersInMemory / 2) {
+                    spill();
+                }
+            }
+            if (clusterCount == clusters.length) {
+                clusters = Arrays.copyOf(clusters, Math.min(clusters.length * 2, maxClustersInMemory));
+            }
+        }
+        clusters[clusterCount++] = clusterId;
+    }
+
+    private Peptiform finish() throws IOException {
+
+        Set<Assay> assaySet = new HashSet<Assay>(assays.cardinality() * 4 / 3 + 1);
+        for (int i = assays.nextSetBit(0); i >= 0; i = assays.nextSetBit(i + 1)) {
+            //For now we are not allowing multispecies assays
+            assaySet.add(assay(assayAccessions.get(i), projectAccessions.get(i), taxid));
+        }
+
+        clusterCount = sortDistinct(clusters, clusterCount);
+        Set<Cluster> clusterSet;
+        if (spills.isEmpty()) {
+            clusterSet = new HashSet<Cluster>(clusterCount * 4 / 3 + 1);
+            for (int i = 0; i < clusterCount; i++) {
+                clusterSet.add(cluster(clusters[i]));
+            }
+        } else {
+            clusterSet = mergeSpills();
+        }
+
+        Peptiform peptiform = result;
+        peptiform.setAssays(assaySet);
+        peptiform.setClusters(clusterSet);
+        peptiform.setScore(ScoreUtils.defaultScore());
+
+        log.debug(peptiform.toString());
+
+        result = null;
+        assays.clear();
+        clusterCount = 0;
+        if (clusters.length > 1024) {
+            //The array of a hot peptide is not kept for the rest of the step
+            clusters = new long[64];
+        }
+
+        return peptiform;
+    }
+
+    private Assay assay(String assayAccession, String projectAccession, int taxid) {
+        if (identityMap != null) {
+            return identityMap.assay(assayAccession, projectAccession, taxid);
+        }
+        Assay assay = new Assay();
+        assay.setAssayAccession(assayAccession);
+        assay.setProjectAccession(projectAccession);
+        assay.setTaxid(taxid);
+        return assay;
+    }
+
+    private Cluster cluster(long clusterId) {
+        if (identityMap != null) {
+            return identityMap.cluster(clusterId);
+        }
+        Cluster cluster = new Cluster();
+        cluster.setClusterId(clusterId);
+        return cluster;
+    }
+
+    /**
+     * Sorts the first count values and removes the duplicates
+     *
+     * @return the number of distinct values
+     */
+    private static int sortDistinct(long[] values, int count) {
+        if (count < 2) {
+            return count;
+        }
+        Arrays.sort(values, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+
+    private void spill() {
+        try {
+            File file = File.createTempFile("peptiform-clusters-", ".bin", spillDirectory);
+            file.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            try {
+                out.writeInt(clusterCount);
+                for (int i = 0; i < clusterCount; i++) {
+                    out.writeLong(clusters[i]);
+                }
+            } finally {
+                out.close();
+            }
+            spills.add(file);
+            SPILLS.increment();
+            log.debug("Spilled " + clusterCount + " clusters of " + sequence + " to " + file);
+            clusterCount = 0;
+        } catch (IOException e) {
+            throw new ItemStreamException("The clusters of " + sequence + " cannot be spilled to disk", e);
+        }
+    }
+
+    /**
+     * Merges the sorted runs of the spill files and the one in memory, without duplicates
+     */
+    private Set<Cluster> mergeSpills() throws IOException {
+        log.info("Merging " + spills.size() + " spills of the clusters of " + sequence + " (" + groupRows + " rows)");
+
+        List<SpilledRun> runs = new ArrayList<SpilledRun>(spills.size());
+        PriorityQueue<SpilledRun> queue = new PriorityQueue<SpilledRun>(spills.size() + 1);
+        int total = clusterCount;
+        try {
+            for (File spill : spills) {
+                SpilledRun run = new SpilledRun(spill);
+                runs.add(run);
+                total += run.remaining;
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            SpilledRun memory = new SpilledRun(clusters, clusterCount);
+            if (memory.advance()) {
+                queue.add(memory);
+            }
+
+            Set<Cluster> clusterSet = new HashSet<Cluster>(total * 4 / 3 + 1);
+            boolean first = true;
+            long last = 0;
+            while (!queue.isEmpty()) {
+                SpilledRun run = queue.poll();
+                if (first || run.current != last) {
+                    clusterSet.add(cluster(run.current));
+                    last = run.current;
+                    first = false;
+                }
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            return clusterSet;
+        } finally {
+            for (SpilledRun run : runs) {
+                run.close();
+            }
+            deleteSpills();
+        }
+    }
+
+    private void deleteSpills() {
+        for (File spill : spills) {
+            if (!spill.delete()) {
+                log.warn("The spill file " + spill + " cannot be deleted");
+            }
+        }
+        spills.clear();
+    }
+
+    /**
+     * Sorted run of cluster ids, from a spill file or from memory
+     */
+    private static class SpilledRun implements Comparable<SpilledRun> {
+
+        private final DataInputStream in;
+        private final long[] values;
+        private int remaining;
+        private int position = 0;
+        private long current;
+
+        SpilledRun(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            values = null;
+            remaining = in.readInt();
+        }
+
+        SpilledRun(long[] values, int count) {
+            in = null;
+            this.values = values;
+            remaining = count;
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            current = in != null ? in.readLong() : values[position++];
+            return true;
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        public int compareTo(SpilledRun o) {
+            return current < o.current ? -1 : (current == o.current ? 0 : 1);
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(delegate, "An ItemStreamReader as delegate must be set");
+        Assert.isTrue(maxClustersInMemory > 0, "maxClustersInMemory must be positive");
+    }
+
+    /**
+     * The delegate is always opened from the start (or the seek), its own position is not restored
+     */
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        StepContext context = StepSynchronizationManager.getContext();
+        groupRowsGauge = groupRowsGauge(context == null ? null : context.getStepName());
+        checkpoint = null;
+        resumeFrom = PeptiformCheckpoint.read(executionContext);
+        if (resumeFrom != null && delegate instanceof SeekableReader) {
+            ((SeekableReader) delegate).seek(resumeFrom.getSequence(), resumeFrom.getTaxid());
+        }
+        delegate.open(new ExecutionContext());
+    }
+
+    private static MetricsRegistry.Gauge groupRowsGauge(String step) {
+        return MetricsRegistry.getInstance().gauge("provider_generator_group_rows", "step", step == null ? "unknown" : step);
+    }
+
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (checkpoint != null) {
+            checkpoint.write(executionContext);
+        }
+    }
+
+    public void close() throws ItemStreamException {
+        next = null;
+        nextPeptiform = null;
+        result = null;
+        assays.clear();
+        clusterCount = 0;
+        deleteSpills();
+        assayIndexes.clear();
+        assayAccessions.clear();
+        projectAccessions.clear();
+        delegate.close();
+    }
+
+    public void setDelegate(ItemStreamReader<ClusterPsm> delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setMaxClustersInMemory(int maxClustersInMemory) {
+        this.maxClustersInMemory = maxClustersInMemory;
+    }
+
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public void setIdentityMap(ClusterPsmIdentityMap identityMap) {
+        this.identityMap = identityMap;
+    }
+}
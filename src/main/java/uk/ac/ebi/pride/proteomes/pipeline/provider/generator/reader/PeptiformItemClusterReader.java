@@ -3,19 +3,25 @@ package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
 import org.springframework.batch.item.*;
-import org.springframework.batch.item.database.JdbcCursorItemReader;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
 import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
 import uk.ac.ebi.pride.proteomes.db.core.api.utils.ScoreUtils;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
 
 
 /**
  * User: ntoro
  * Date: 05/12/2013
  * Time: 10:28
+ *
+ * The last peptiform returned is saved as a {@link PeptiformCheckpoint}. On a restart the delegate is opened from the
+ * start, or from the sequence of the checkpoint if it is a {@link SeekableReader}, and the groups up to the checkpoint
+ * are skipped.
  */
 public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>, InitializingBean {
 
@@ -25,13 +31,65 @@ public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>,
 
     Peptiform result;
 
+    //Rows grouped in the current result
+    private int groupRows = 0;
 
-    private JdbcCursorItemReader<? extends Peptiform> delegate;
+    //Rows of the group being built (and the biggest group), per step or partition. Relabelled when it is opened
+    private MetricsRegistry.Gauge groupRowsGauge = groupRowsGauge(null);
 
 
+    //Any reader of rows sorted by representation (e.g. a JdbcCursorItemReader)
+    private ItemStreamReader<? extends Peptiform> delegate;
+
+    //Last peptiform returned, and the one to skip to after a restart
+    private PeptiformCheckpoint checkpoint;
+    private PeptiformCheckpoint resumeFrom;
+
+
+    public Peptiform read() throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
+        if (resumeFrom != null) {
+            skipToCheckpoint();
+        }
+        Peptiform peptiform = readGroup();
+        if (peptiform != null) {
+            checkpoint = new PeptiformCheckpoint(peptiform);
+        }
+        return peptiform;
+    }
+
+    /**
+     * Skips the rows before the sequence of the checkpoint (if the delegate didn't seek to it) and the groups of the
+     * sequence up to the one of the checkpoint
+     */
+    private void skipToCheckpoint() throws Exception {
+        PeptiformCheckpoint target = resumeFrom;
+        resumeFrom = null;
+
+        Peptiform row;
+        long skippedRows = 0;
+        while ((row = delegate.read()) != null && target.isBefore(row.getSequence(), row.getTaxid())) {
+            skippedRows++;
+        }
+        if (row == null) {
+            return;
+        }
+        result = row;
+        groupRows = 1;
+
+        int skippedGroups = 0;
+        while (result != null && target.sameSequence(result)) {
+            Peptiform skipped = readGroup();
+            skippedGroups++;
+            if (target.matches(skipped)) {
+                break;
+            }
+        }
+        log.info("Resumed after " + target + ", skipped " + skippedRows + " rows and " + skippedGroups + " peptiforms");
+    }
+
     // We assume for this reader that the records are sorted by sequence, so when de sequence + mods + species are different we create a new
     // Peptiform and released the previous one
-    public Peptiform read() throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
+    private Peptiform readGroup() throws Exception {
 
         //First element
         Peptiform aux = null;
@@ -40,6 +98,8 @@ public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>,
         //First element
         if (result == null) {
             result = current;
+            //It is counted when it is compared with itself
+            groupRows = 0;
         }
 
         do {
@@ -53,6 +113,7 @@ public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>,
             } else {
                 if (result.getPeptideRepresentation().equals(current.getPeptideRepresentation())) {
                     updateItem(current);
+                    groupRowsGauge.set(++groupRows);
                     current = delegate.read();
                 } else {
 
@@ -63,6 +124,8 @@ public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>,
 
                     aux = result;
                     result = current;
+                    groupRows = 1;
+                    groupRowsGauge.set(groupRows);
                 }
             }
 
@@ -97,22 +160,39 @@ public class PeptiformItemClusterReader implements ItemStreamReader<Peptiform>,
     }
 
     public void afterPropertiesSet() throws Exception {
-        Assert.notNull(delegate, "An AbstractPagingItemReader as delegate must be set");
+        Assert.notNull(delegate, "An ItemStreamReader as delegate must be set");
     }
 
+    /**
+     * The delegate is always opened from the start (or the seek), its own position is not restored
+     */
     public void open(ExecutionContext executionContext) throws ItemStreamException {
-        delegate.open(executionContext);
+        StepContext context = StepSynchronizationManager.getContext();
+        groupRowsGauge = groupRowsGauge(context == null ? null : context.getStepName());
+        checkpoint = null;
+        resumeFrom = PeptiformCheckpoint.read(executionContext);
+        if (resumeFrom != null && delegate instanceof SeekableReader) {
+            ((SeekableReader) delegate).seek(resumeFrom.getSequence(), resumeFrom.getTaxid());
+        }
+        delegate.open(new ExecutionContext());
+    }
+
+    private static MetricsRegistry.Gauge groupRowsGauge(String step) {
+        return MetricsRegistry.getInstance().gauge("provider_generator_group_rows", "step", step == null ? "unknown" : step);
     }
 
     public void update(ExecutionContext executionContext) throws ItemStreamException {
-        delegate.update(executionContext);
+        if (checkpoint != null) {
+            checkpoint.write(executionContext);
+        }
     }
 
     public void close() throws ItemStreamException {
+        result = null;
         delegate.close();
     }
 
-    public void setDelegate(JdbcCursorItemReader<? extends Peptiform> delegate) {
+    public void setDelegate(ItemStreamReader<? extends Peptiform> delegate) {
         this.delegate = delegate;
     }
 }
@@ -0,0 +1,89 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.database.JdbcCursorItemReader;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * JdbcCursorItemReader of cluster_psm that can seek to a sequence and species with a keyed predicate
+ * (sequence > ? or (sequence = ? and taxid >= ?)), so a restart doesn't re-read and skip the rows before it.
+ *
+ * The predicate replaces the {@link #SEEK_MARKER} comment of the query, which must come after the other parameters
+ * (e.g. at the end of the where clause, before the order by). It is added with "and" if the query has a where clause
+ * before the marker, with "where" otherwise. The parameters of the query are set with {@link #setArguments(List)}.
+ */
+public class SeekableJdbcCursorItemReader<T> extends JdbcCursorItemReader<T> implements SeekableReader {
+
+    private static final Log log = LogFactory.getLog(SeekableJdbcCursorItemReader.class);
+
+    public static final String SEEK_MARKER = "/*seek*/";
+
+    private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final String SEEK_PREDICATE = "(sequence > ? or (sequence = ? and taxid >= ?))";
+
+    private String sql;
+
+    private List<?> arguments = Collections.emptyList();
+
+    private String seekSequence;
+
+    private int seekTaxid;
+
+    public void seek(String sequence, int taxid) {
+        this.seekSequence = sequence;
+        this.seekTaxid = taxid;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        List<Object> values = new ArrayList<Object>(arguments);
+        String query = sql;
+        if (seekSequence != null) {
+            int marker = sql.indexOf(SEEK_MARKER);
+            query = sql.substring(0, marker)
+                    + (WHERE.matcher(sql.substring(0, marker)).find() ? " and " : " where ") + SEEK_PREDICATE
+                    + sql.substring(marker + SEEK_MARKER.length());
+            values.add(seekSequence);
+            values.add(seekSequence);
+            values.add(seekTaxid);
+            log.info("Seeking to " + seekSequence + " (taxid " + seekTaxid + ")");
+        }
+        super.setSql(query);
+        if (!values.isEmpty()) {
+            setPreparedStatementSetter(new ArgumentPreparedStatementSetter(values.toArray()));
+        }
+        super.open(executionContext);
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        super.close();
+        seekSequence = null;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        super.afterPropertiesSet();
+        Assert.isTrue(sql.contains(SEEK_MARKER), "The query must contain the marker " + SEEK_MARKER);
+    }
+
+    @Override
+    public void setSql(String sql) {
+        this.sql = sql;
+        super.setSql(sql);
+    }
+
+    public void setArguments(List<?> arguments) {
+        this.arguments = arguments;
+    }
+}
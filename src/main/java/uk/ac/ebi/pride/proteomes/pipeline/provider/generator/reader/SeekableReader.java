@@ -0,0 +1,13 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader;
+
+/**
+ * Reader of the rows of cluster_psm sorted by sequence and taxid that can start at a given sequence and species
+ * instead of the first row, e.g. to resume a restarted step from its {@link PeptiformCheckpoint}.
+ */
+public interface SeekableReader {
+
+    /**
+     * Skips the rows before the sequence and species when the reader is opened. It must be called before open.
+     */
+    void seek(String sequence, int taxid);
+}
@@ -0,0 +1,192 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the rows of cluster_psm, sorted as the generator reads them.
+ *
+ * The file starts with a header (magic, version, number of blocks, number of rows, maximum psm_id of the table when it
+ * was exported, checksum, offset and length of the block index) followed by blocks of rows and the block index. Every block is columnar: the four string
+ * columns (sequence, mods, assay_accession and project_accession) are encoded with a dictionary of the block and ids of
+ * 1, 2 or 4 bytes depending on the size of the dictionary, followed by the taxids and the cluster ids. A block never
+ * splits the rows of a sequence, so a range of blocks can be replayed on its own (e.g. by a partition).
+ *
+ * The index stores the offset, length, number of rows, first row, CRC32 and first sequence of every block. The maximum
+ * psm_id is the watermark of a run that replays the snapshot.
+ */
+public final class ClusterPsmSnapshot {
+
+    static final long MAGIC = 0x43505350534E4150L; // CPSPSNAP
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 8 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+
+    private final File file;
+
+    private final long rowCount;
+
+    private final long maxPsmId;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private final int[] rows;
+
+    private final long[] firstRows;
+
+    private final long[] checksums;
+
+    private final String[] firstSequences;
+
+    private ClusterPsmSnapshot(File file, long rowCount, long maxPsmId, int blockCount) {
+        this.file = file;
+        this.rowCount = rowCount;
+        this.maxPsmId = maxPsmId;
+        this.offsets = new long[blockCount];
+        this.lengths = new int[blockCount];
+        this.rows = new int[blockCount];
+        this.firstRows = new long[blockCount];
+        this.checksums = new long[blockCount];
+        this.firstSequences = new String[blockCount];
+    }
+
+    /**
+     * Reads the header and the block index of a snapshot, the index is verified with the checksum of the header
+     */
+    public static ClusterPsmSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw new IOException(file + " is not a cluster_psm snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of the snapshot " + file
+                        + ", it has to be exported again");
+            }
+            int blockCount = header.getInt();
+            long rowCount = header.getLong();
+            long maxPsmId = header.getLong();
+            long checksum = header.getLong();
+            long indexOffset = header.getLong();
+            int indexLength = header.getInt();
+
+            ByteBuffer index = ByteBuffer.allocate(indexLength);
+            readFully(channel, index, indexOffset);
+            if (checksum(index.array(), indexLength) != checksum) {
+                throw new IOException("The block index of the snapshot " + file + " is corrupted");
+            }
+
+            ClusterPsmSnapshot snapshot = new ClusterPsmSnapshot(file, rowCount, maxPsmId, blockCount);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+            for (int i = 0; i < blockCount; i++) {
+                snapshot.offsets[i] = in.readLong();
+                snapshot.lengths[i] = in.readInt();
+                snapshot.rows[i] = in.readInt();
+                snapshot.firstRows[i] = in.readLong();
+                snapshot.checksums[i] = in.readLong();
+                snapshot.firstSequences[i] = in.readUTF();
+            }
+            return snapshot;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps a block in memory and verifies its checksum
+     */
+    MappedByteBuffer mapBlock(FileChannel channel, int block) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[block], lengths[block]);
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[Math.min(lengths[block], 1 << 16)];
+        ByteBuffer view = buffer.duplicate();
+        while (view.hasRemaining()) {
+            int length = Math.min(scratch.length, view.remaining());
+            view.get(scratch, 0, length);
+            crc.update(scratch, 0, length);
+        }
+        if (crc.getValue() != checksums[block]) {
+            throw new IOException("The block " + block + " of the snapshot " + file + " is corrupted");
+        }
+        return buffer;
+    }
+
+    static long checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the snapshot");
+            }
+            position += read;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the maximum psm_id of cluster_psm when the export started, the rows loaded after it are not in the
+     * snapshot (-1 if the table was empty)
+     */
+    public long getMaxPsmId() {
+        return maxPsmId;
+    }
+
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    public int getRows(int block) {
+        return rows[block];
+    }
+
+    public long getFirstRow(int block) {
+        return firstRows[block];
+    }
+
+    /**
+     * @return the block that contains the rows of the sequence if it is in the snapshot, otherwise the last block
+     * before it (0 if it is before the first one). The rows of a sequence are never split between blocks.
+     */
+    public int findBlock(String sequence) {
+        int low = 0;
+        int high = firstSequences.length - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstSequences[middle].compareTo(sequence) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+}
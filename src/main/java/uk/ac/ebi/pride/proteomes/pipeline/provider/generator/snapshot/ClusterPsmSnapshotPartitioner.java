@@ -0,0 +1,79 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.snapshot;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.partition.PeptiformClusterPartitioner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits a {@link ClusterPsmSnapshot} in contiguous ranges of blocks with a similar number of rows. A block never
+ * splits the rows of a sequence, so every peptiform is read by only one partition.
+ */
+public class ClusterPsmSnapshotPartitioner implements Partitioner, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ClusterPsmSnapshotPartitioner.class);
+
+    public static final String FIRST_BLOCK_KEY = "firstBlock";
+    public static final String LAST_BLOCK_KEY = "lastBlock";
+
+    private static final String PARTITION_PREFIX = "partition";
+
+    private File file;
+
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        ClusterPsmSnapshot snapshot;
+        try {
+            snapshot = ClusterPsmSnapshot.open(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("The snapshot " + file + " cannot be read", e);
+        }
+
+        long target = Math.max(1, snapshot.getRowCount() / Math.max(1, gridSize));
+        log.info("Partitioning the snapshot " + file + " (" + snapshot.getRowCount() + " rows in "
+                + snapshot.getBlockCount() + " blocks) in chunks of ~" + target + " rows");
+
+        Map<String, ExecutionContext> result = new HashMap<String, ExecutionContext>();
+        int first = 0;
+        long rowCount = 0;
+        for (int block = 0; block < snapshot.getBlockCount(); block++) {
+            rowCount += snapshot.getRows(block);
+            if (rowCount >= target || block == snapshot.getBlockCount() - 1) {
+                addPartition(result, first, block, rowCount);
+                first = block + 1;
+                rowCount = 0;
+            }
+        }
+
+        log.info("Created " + result.size() + " partitions for a grid size of " + gridSize);
+
+        return result;
+    }
+
+    private static void addPartition(Map<String, ExecutionContext> partitions, int firstBlock, int lastBlock, long rowCount) {
+        ExecutionContext context = new ExecutionContext();
+        context.putInt(FIRST_BLOCK_KEY, firstBlock);
+        context.putInt(LAST_BLOCK_KEY, lastBlock);
+        context.putLong(PeptiformClusterPartitioner.ROW_COUNT_KEY, rowCount);
+
+        String name = PARTITION_PREFIX + partitions.size();
+        log.debug(name + ": blocks [" + firstBlock + ", " + lastBlock + "] " + rowCount + " rows");
+
+        partitions.put(name, context);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(file, "The file of the snapshot must be set");
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+}
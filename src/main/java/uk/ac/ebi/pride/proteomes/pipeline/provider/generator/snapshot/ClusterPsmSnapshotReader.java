@@ -0,0 +1,174 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.snapshot;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.ClusterPsm;
+import uk.ac.ebi.pride.proteomes.pipeline.provider.generator.reader.SeekableReader;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Replays the rows of a {@link ClusterPsmSnapshot} in the order they were exported. Every block is memory mapped and
+ * verified with its checksum before it is decoded. The blocks from firstBlock to lastBlock (both included, -1 for the
+ * last one) are read, so a snapshot can be replayed by several partitions.
+ *
+ * A restart does not use the item count: the grouping reader seeks to the sequence of its checkpoint, and the blocks
+ * before the one that contains it are skipped without mapping them.
+ */
+public class ClusterPsmSnapshotReader extends AbstractItemCountingItemStreamItemReader<ClusterPsm>
+        implements SeekableReader, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ClusterPsmSnapshotReader.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    private int firstBlock = 0;
+
+    private int lastBlock = -1;
+
+    private ClusterPsmSnapshot snapshot;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private int block;
+
+    private String seekSequence;
+
+    //Decoded columns of the current block
+    private int rows;
+    private int row;
+    private String[][] dictionaries = new String[4][];
+    private int[][] ids = new int[4][];
+    private int[] taxids;
+    private long[] clusterIds;
+
+    public ClusterPsmSnapshotReader() {
+        setName(ClassUtils.getShortName(ClusterPsmSnapshotReader.class));
+    }
+
+    /**
+     * @return the number of bytes of the ids of a dictionary
+     */
+    static int idWidth(int dictionarySize) {
+        return dictionarySize <= 256 ? 1 : (dictionarySize <= 65536 ? 2 : 4);
+    }
+
+    public void seek(String sequence, int taxid) {
+        //The rows of a sequence are in one block, the ones before the species are skipped by the caller
+        this.seekSequence = sequence;
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        snapshot = ClusterPsmSnapshot.open(file);
+        if (lastBlock < 0 || lastBlock >= snapshot.getBlockCount()) {
+            lastBlock = snapshot.getBlockCount() - 1;
+        }
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        int start = firstBlock;
+        if (seekSequence != null && firstBlock <= lastBlock) {
+            start = Math.min(lastBlock, Math.max(firstBlock, snapshot.findBlock(seekSequence)));
+            log.info("Seeking to " + seekSequence + ", " + (start - firstBlock) + " blocks skipped");
+        }
+        block = start - 1;
+        rows = 0;
+        row = 0;
+        log.info("Replaying blocks " + start + " to " + lastBlock + " of the snapshot " + file
+                + " (" + snapshot.getRowCount() + " rows in " + snapshot.getBlockCount() + " blocks)");
+    }
+
+    @Override
+    protected ClusterPsm doRead() throws Exception {
+        while (row >= rows) {
+            if (block >= lastBlock) {
+                return null;
+            }
+            decode(++block);
+        }
+
+        ClusterPsm item = new ClusterPsm();
+        item.setSequence(dictionaries[0][ids[0][row]]);
+        item.setModifications(dictionaries[1][ids[1][row]]);
+        item.setAssayAccession(dictionaries[2][ids[2][row]]);
+        item.setProjectAccession(dictionaries[3][ids[3][row]]);
+        item.setTaxid(taxids[row]);
+        item.setClusterId(Long.toString(clusterIds[row]));
+        row++;
+        return item;
+    }
+
+    private void decode(int block) throws Exception {
+        ByteBuffer buffer = snapshot.mapBlock(channel, block);
+        rows = buffer.getInt();
+        row = 0;
+        for (int column = 0; column < 4; column++) {
+            int size = buffer.getInt();
+            String[] dictionary = new String[size];
+            for (int i = 0; i < size; i++) {
+                int length = buffer.getInt();
+                if (length >= 0) {
+                    byte[] utf8 = new byte[length];
+                    buffer.get(utf8);
+                    dictionary[i] = new String(utf8, UTF8);
+                }
+            }
+            int width = idWidth(size);
+            int[] columnIds = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                columnIds[i] = width == 1 ? buffer.get() & 0xFF : (width == 2 ? buffer.getShort() & 0xFFFF : buffer.getInt());
+            }
+            dictionaries[column] = dictionary;
+            ids[column] = columnIds;
+        }
+        taxids = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            taxids[i] = buffer.getInt();
+        }
+        clusterIds = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            clusterIds[i] = buffer.getLong();
+        }
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        dictionaries = new String[4][];
+        ids = new int[4][];
+        taxids = null;
+        clusterIds = null;
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(file, "The file of the snapshot must be set");
+        Assert.isTrue(firstBlock >= 0, "The first block must not be negative");
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setFirstBlock(int firstBlock) {
+        this.firstBlock = firstBlock;
+    }
+
+    public void setLastBlock(int lastBlock) {
+        this.lastBlock = lastBlock;
+    }
+}
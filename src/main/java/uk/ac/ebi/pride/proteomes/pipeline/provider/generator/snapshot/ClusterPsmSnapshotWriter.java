@@ -0,0 +1,292 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.snapshot;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.ClusterPsm;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Writes the rows of cluster_psm in a {@link ClusterPsmSnapshot}. The rows must come sorted by sequence, a block is
+ * closed after blockRows rows when the sequence changes.
+ *
+ * The snapshot is written in a temporary file that is renamed when the step is completed, so a failed export never
+ * leaves an incomplete snapshot. It needs to be registered as a listener of the step. It is not restartable, the export
+ * must be run again from the beginning.
+ *
+ * The maximum psm_id is queried before the step opens the reader and stored in the header as the watermark of the
+ * runs that replay the snapshot. A row loaded between the query and the opening of the cursor is in the snapshot but
+ * above the watermark, so an incremental run on the database processes it again instead of missing it.
+ */
+public class ClusterPsmSnapshotWriter implements ItemStreamWriter<ClusterPsm>, StepExecutionListener, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(ClusterPsmSnapshotWriter.class);
+
+    private static final int SEQUENCE = 0;
+    private static final int MODS = 1;
+    private static final int ASSAY = 2;
+    private static final int PROJECT = 3;
+
+    private File file;
+
+    private int blockRows = 65536;
+
+    private JdbcTemplate jdbcTemplate;
+
+    // Returns the current maximum of the watermark column, e.g. select max(psm_id) from cluster_psm
+    private String watermarkQuery;
+
+    private long maxPsmId;
+
+    private File tmpFile;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private long position;
+
+    private long rowCount;
+
+    private final List<ClusterPsm> block = new ArrayList<ClusterPsm>();
+
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    private int blockCount;
+
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("The folder " + directory + " cannot be created");
+            }
+            tmpFile = new File(file.getPath() + ".tmp");
+            raf = new RandomAccessFile(tmpFile, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            position = ClusterPsmSnapshot.HEADER_SIZE;
+            rowCount = 0;
+            blockCount = 0;
+            block.clear();
+            index.reset();
+        } catch (IOException e) {
+            throw new ItemStreamException("The snapshot " + file + " cannot be created", e);
+        }
+    }
+
+    public void write(List<? extends ClusterPsm> items) throws Exception {
+        for (ClusterPsm item : items) {
+            if (block.size() >= blockRows && !block.get(block.size() - 1).getSequence().equals(item.getSequence())) {
+                writeBlock();
+            }
+            block.add(item);
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (block.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.size() * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(block.size());
+        writeColumn(out, SEQUENCE);
+        writeColumn(out, MODS);
+        writeColumn(out, ASSAY);
+        writeColumn(out, PROJECT);
+        for (ClusterPsm row : block) {
+            out.writeInt(row.getTaxid());
+        }
+        for (ClusterPsm row : block) {
+            out.writeLong(Long.parseLong(row.getClusterId()));
+        }
+        out.flush();
+
+        byte[] data = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        DataOutputStream entry = new DataOutputStream(index);
+        entry.writeLong(position - data.length);
+        entry.writeInt(data.length);
+        entry.writeInt(block.size());
+        entry.writeLong(rowCount);
+        entry.writeLong(ClusterPsmSnapshot.checksum(data, data.length));
+        entry.writeUTF(block.get(0).getSequence());
+        entry.flush();
+
+        rowCount += block.size();
+        blockCount++;
+        block.clear();
+    }
+
+    private static String value(ClusterPsm row, int column) {
+        switch (column) {
+            case SEQUENCE:
+                return row.getSequence();
+            case MODS:
+                return row.getModifications();
+            case ASSAY:
+                return row.getAssayAccession();
+            default:
+                return row.getProjectAccession();
+        }
+    }
+
+    /**
+     * Dictionary of the distinct values of the column followed by the ids of the rows (1, 2 or 4 bytes)
+     */
+    private void writeColumn(DataOutputStream out, int column) throws IOException {
+        //The null value is a key of the dictionary as any other
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int[] ids = new int[block.size()];
+        for (int i = 0; i < block.size(); i++) {
+            String value = value(block.get(i), column);
+            Integer id = dictionary.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(value, id);
+            }
+            ids[i] = id;
+        }
+
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] utf8 = value.getBytes("UTF-8");
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        }
+        int width = ClusterPsmSnapshotReader.idWidth(dictionary.size());
+        for (int id : ids) {
+            if (width == 1) {
+                out.writeByte(id);
+            } else if (width == 2) {
+                out.writeShort(id);
+            } else {
+                out.writeInt(id);
+            }
+        }
+    }
+
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        Long max = jdbcTemplate.queryForObject(watermarkQuery, Long.class);
+        maxPsmId = max != null ? max : -1L;
+        log.info("The watermark of the snapshot " + file + " is " + maxPsmId);
+    }
+
+    /**
+     * The snapshot is completed only if the step is completed (the streams are closed also when the step fails)
+     */
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (stepExecution.getStatus() == BatchStatus.COMPLETED && raf != null) {
+            try {
+                complete();
+            } catch (IOException e) {
+                log.error("The snapshot " + file + " cannot be written", e);
+                stepExecution.addFailureException(e);
+                return ExitStatus.FAILED;
+            }
+        }
+        return null;
+    }
+
+    private void complete() throws IOException {
+        writeBlock();
+
+        byte[] indexBytes = index.toByteArray();
+        long indexOffset = position;
+        ByteBuffer buffer = ByteBuffer.wrap(indexBytes);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(ClusterPsmSnapshot.HEADER_SIZE);
+        header.putLong(ClusterPsmSnapshot.MAGIC);
+        header.putInt(ClusterPsmSnapshot.VERSION);
+        header.putInt(blockCount);
+        header.putLong(rowCount);
+        header.putLong(maxPsmId);
+        header.putLong(ClusterPsmSnapshot.checksum(indexBytes, indexBytes.length));
+        header.putLong(indexOffset);
+        header.putInt(indexBytes.length);
+        header.flip();
+        long headerPosition = 0;
+        while (header.hasRemaining()) {
+            headerPosition += channel.write(header, headerPosition);
+        }
+        channel.force(true);
+        raf.close();
+        raf = null;
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("The previous snapshot " + file + " cannot be replaced");
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException(tmpFile + " cannot be renamed to " + file);
+        }
+        log.info("Written a snapshot of " + rowCount + " rows in " + blockCount + " blocks (" + position + " bytes) to " + file);
+    }
+
+    public void close() throws ItemStreamException {
+        if (raf == null) {
+            return;
+        }
+        //Incomplete snapshot
+        try {
+            raf.close();
+        } catch (IOException e) {
+            log.warn("The snapshot " + tmpFile + " cannot be closed", e);
+        }
+        raf = null;
+        if (!tmpFile.delete()) {
+            log.warn("The incomplete snapshot " + tmpFile + " cannot be deleted");
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(file, "The file of the snapshot must be set");
+        Assert.isTrue(blockRows > 0, "The number of rows of a block must be positive");
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(watermarkQuery, "A watermark query must be set");
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setBlockRows(int blockRows) {
+        this.blockRows = blockRows;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setWatermarkQuery(String watermarkQuery) {
+        this.watermarkQuery = watermarkQuery;
+    }
+}
@@ -0,0 +1,167 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.writer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.cluster.Cluster;
+import uk.ac.ebi.pride.proteomes.db.core.api.modification.ModificationLocation;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the new peptiforms with JDBC batches instead of merging them through JPA. It has the same effect as the
+ * JpaItemWriter with the cascades of the Peptiform: the assays and clusters are inserted if they don't exist, and the
+ * peptiform, its modification locations and its links to the assays and clusters are inserted. The ids of the
+ * peptiforms are taken from a {@link SequenceIdAllocator}.
+ *
+ * It uses the connection of the chunk transaction, but nothing is kept in the persistence context between chunks.
+ * The SQL statements use named parameters that are resolved against the properties of the entities
+ * (e.g. :peptideId, :sequence, :assayAccession, :clusterId).
+ */
+public class PeptiformJdbcBatchWriter implements ItemWriter<Peptiform>, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptiformJdbcBatchWriter.class);
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private SequenceIdAllocator idAllocator;
+
+    // Insert if absent (e.g. Oracle merge)
+    private String assaySql;
+
+    // Insert if absent (e.g. Oracle merge)
+    private String clusterSql;
+
+    private String peptiformSql;
+
+    // :peptideId, :modId and :position
+    private String modificationLocationSql;
+
+    // :peptideId and :assayAccession
+    private String peptiformAssaySql;
+
+    // :peptideId and :clusterId
+    private String peptiformClusterSql;
+
+    public void write(List<? extends Peptiform> items) throws Exception {
+
+        //Assays and clusters are shared by a lot of peptiforms in the same chunk
+        Map<String, Assay> assays = new LinkedHashMap<String, Assay>();
+        Map<Long, Cluster> clusters = new LinkedHashMap<Long, Cluster>();
+
+        List<SqlParameterSource> peptiforms = new ArrayList<SqlParameterSource>(items.size());
+        List<SqlParameterSource> modificationLocations = new ArrayList<SqlParameterSource>();
+        List<SqlParameterSource> peptiformAssays = new ArrayList<SqlParameterSource>();
+        List<SqlParameterSource> peptiformClusters = new ArrayList<SqlParameterSource>();
+
+        for (Peptiform peptiform : items) {
+            long peptideId = idAllocator.nextId();
+            peptiform.setPeptideId(peptideId);
+            peptiforms.add(new BeanPropertySqlParameterSource(peptiform));
+
+            if (peptiform.getModificationLocations() != null) {
+                for (ModificationLocation modificationLocation : peptiform.getModificationLocations()) {
+                    modificationLocations.add(new MapSqlParameterSource("peptideId", peptideId)
+                            .addValue("modId", modificationLocation.getModId())
+                            .addValue("position", modificationLocation.getPosition()));
+                }
+            }
+
+            if (peptiform.getAssays() != null) {
+                for (Assay assay : peptiform.getAssays()) {
+                    assays.put(assay.getAssayAccession(), assay);
+                    peptiformAssays.add(new MapSqlParameterSource("peptideId", peptideId)
+                            .addValue("assayAccession", assay.getAssayAccession()));
+                }
+            }
+
+            if (peptiform.getClusters() != null) {
+                for (Cluster cluster : peptiform.getClusters()) {
+                    clusters.put(cluster.getClusterId(), cluster);
+                    peptiformClusters.add(new MapSqlParameterSource("peptideId", peptideId)
+                            .addValue("clusterId", cluster.getClusterId()));
+                }
+            }
+        }
+
+        //The referenced rows first
+        batchUpdate(assaySql, beanSources(assays.values()));
+        batchUpdate(clusterSql, beanSources(clusters.values()));
+        batchUpdate(peptiformSql, peptiforms);
+        batchUpdate(modificationLocationSql, modificationLocations);
+        batchUpdate(peptiformAssaySql, peptiformAssays);
+        batchUpdate(peptiformClusterSql, peptiformClusters);
+
+        log.debug("Written " + items.size() + " peptiforms, " + assays.size() + " assays, " + clusters.size()
+                + " clusters, " + peptiformAssays.size() + " assay links and " + peptiformClusters.size() + " cluster links");
+    }
+
+    private void batchUpdate(String sql, List<SqlParameterSource> batch) {
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, batch.toArray(new SqlParameterSource[batch.size()]));
+        }
+    }
+
+    private static List<SqlParameterSource> beanSources(Iterable<?> beans) {
+        List<SqlParameterSource> sources = new ArrayList<SqlParameterSource>();
+        for (Object bean : beans) {
+            sources.add(new BeanPropertySqlParameterSource(bean));
+        }
+        return sources;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.notNull(idAllocator, "An id allocator must be set");
+        Assert.hasText(assaySql, "The assay SQL must be set");
+        Assert.hasText(clusterSql, "The cluster SQL must be set");
+        Assert.hasText(peptiformSql, "The peptiform SQL must be set");
+        Assert.hasText(modificationLocationSql, "The modification location SQL must be set");
+        Assert.hasText(peptiformAssaySql, "The peptiform-assay SQL must be set");
+        Assert.hasText(peptiformClusterSql, "The peptiform-cluster SQL must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    public void setIdAllocator(SequenceIdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+    }
+
+    public void setAssaySql(String assaySql) {
+        this.assaySql = assaySql;
+    }
+
+    public void setClusterSql(String clusterSql) {
+        this.clusterSql = clusterSql;
+    }
+
+    public void setPeptiformSql(String peptiformSql) {
+        this.peptiformSql = peptiformSql;
+    }
+
+    public void setModificationLocationSql(String modificationLocationSql) {
+        this.modificationLocationSql = modificationLocationSql;
+    }
+
+    public void setPeptiformAssaySql(String peptiformAssaySql) {
+        this.peptiformAssaySql = peptiformAssaySql;
+    }
+
+    public void setPeptiformClusterSql(String peptiformClusterSql) {
+        this.peptiformClusterSql = peptiformClusterSql;
+    }
+}
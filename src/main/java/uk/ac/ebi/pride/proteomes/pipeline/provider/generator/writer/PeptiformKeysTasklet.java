@@ -0,0 +1,54 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.writer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Inserts the assays and clusters of cluster_psm that don't exist yet before the partitioned generation. The partitions
+ * are sequence hash buckets, so the same new assay or cluster is referenced by several of them: if they inserted it
+ * themselves they would wait on each other's locks and fail with unique violations, and every failure sends a chunk to
+ * the item by item scan. With the keys already stored the inserts of the writers find them and do nothing.
+ *
+ * The statements are run once, in the transaction of the step, before any partition writes. They must only insert the
+ * missing keys (e.g. insert ... select ... where not exists), so a restart can run them again.
+ */
+public class PeptiformKeysTasklet implements Tasklet, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(PeptiformKeysTasklet.class);
+
+    private JdbcTemplate jdbcTemplate;
+
+    private List<String> statements;
+
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        for (int i = 0; i < statements.size(); i++) {
+            int rows = jdbcTemplate.update(statements.get(i));
+            contribution.incrementWriteCount(rows);
+            log.info("Inserted " + rows + " new keys with the statement " + (i + 1) + " of " + statements.size());
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.notEmpty(statements, "The insert statements must be set");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setStatements(List<String> statements) {
+        this.statements = statements;
+    }
+}
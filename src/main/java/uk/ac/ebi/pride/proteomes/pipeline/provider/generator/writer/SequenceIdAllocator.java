@@ -0,0 +1,60 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.writer;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Hands out ids from an Oracle sequence. The ids are fetched in blocks with a single round trip, so a chunk
+ * doesn't need a nextval per row. It is thread safe.
+ */
+public class SequenceIdAllocator implements InitializingBean {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String sequenceName;
+
+    private int blockSize = 1000;
+
+    private long[] block = new long[0];
+
+    private int next = 0;
+
+    public synchronized long nextId() {
+        if (next == block.length) {
+            fetchBlock();
+        }
+        return block[next++];
+    }
+
+    private void fetchBlock() {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "select " + sequenceName + ".nextval from dual connect by level <= ?", Long.class, blockSize);
+        block = new long[ids.size()];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = ids.get(i);
+        }
+        next = 0;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jdbcTemplate, "A data source must be set");
+        Assert.hasText(sequenceName, "A sequence name must be set");
+        Assert.isTrue(blockSize > 0, "The block size must be positive");
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setSequenceName(String sequenceName) {
+        this.sequenceName = sequenceName;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+}
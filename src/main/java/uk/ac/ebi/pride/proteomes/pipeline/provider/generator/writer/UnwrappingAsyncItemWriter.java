@@ -0,0 +1,27 @@
+package uk.ac.ebi.pride.proteomes.pipeline.provider.generator.writer;
+
+import org.springframework.batch.integration.async.AsyncItemWriter;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * {@link AsyncItemWriter} that throws the exception of a failed processing (e.g. a ValidationException) instead of the
+ * ExecutionException of its future, so the skip rules of the step still apply to it. The failure is seen by the step
+ * as a failed write: the chunk is rolled back and scanned item by item, and the item is counted as a write skip.
+ */
+public class UnwrappingAsyncItemWriter<T> extends AsyncItemWriter<T> {
+
+    @Override
+    public void write(List<? extends Future<T>> items) throws Exception {
+        try {
+            super.write(items);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package uk.ac.ebi.pride.proteomes.pipeline.recovery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.skip.SkipLimitExceededException;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes the chunks in their own transaction and, when a chunk fails with a skippable exception, splits it in halves
+ * until the items that fail are found, so k bad items of a chunk of n cost about k * log2(n) writes instead of the n
+ * transactions of the item by item scan of Spring Batch. The bad items are sent to the {@link DeadLetterWriter} and the
+ * rest of the chunk is written, the exception is never seen by the step.
+ *
+ * The transactions are new (REQUIRES_NEW) because a failed flush leaves the transaction of the chunk (and its entity
+ * manager) unusable, so the written items are committed before the execution context of the step. If the job dies
+ * between both commits the chunk is written again on the restart, like the rows written by a tasklet. The rows the
+ * items refer to must be committed before the write (as the new modifications of the ModificationRegistry are), the
+ * transactions of the bisection don't see the ones inserted in the transaction of the chunk.
+ *
+ * The dead letters are counted as write skips of the step execution (and taken out of its write count), so they are
+ * reported as the skips of the scan are. When the skips of the step exceed the skip limit (the same as the skip-limit of
+ * the step) the write fails with a {@link SkipLimitExceededException}, so a systematic failure stops the step instead
+ * of sending every item to the dead letters.
+ *
+ * When it is disabled the chunks are written by the delegate in the transaction of the step, and the failures are
+ * recovered by the skip scan of the step.
+ */
+public class BisectingItemWriter<T> implements ItemWriter<T>, InitializingBean {
+
+    private static final Log log = LogFactory.getLog(BisectingItemWriter.class);
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private ItemWriter<? super T> delegate;
+
+    private PlatformTransactionManager transactionManager;
+
+    private DeadLetterWriter deadLetterWriter;
+
+    private List<Class<? extends Throwable>> skippableExceptions = Collections.emptyList();
+
+    private boolean enabled = false;
+
+    private int skipLimit = Integer.MAX_VALUE;
+
+    private TransactionTemplate transactionTemplate;
+
+    public void write(List<? extends T> items) throws Exception {
+        if (!enabled) {
+            delegate.write(items);
+            return;
+        }
+
+        String step = stepName();
+        if (!bisect(items, step)) {
+            metricsRegistry.counter("provider_bisected_chunks_total", "step", step).increment();
+        }
+    }
+
+    /**
+     * @return true if all the items were written
+     */
+    private boolean bisect(List<? extends T> items, String step) throws Exception {
+        try {
+            writeInTransaction(items);
+            return true;
+        } catch (Exception e) {
+            if (!isSkippable(e)) {
+                throw e;
+            }
+            metricsRegistry.counter("provider_bisect_failed_writes_total", "step", step).increment();
+            if (items.size() == 1) {
+                deadLetterWriter.write(step, items.get(0), e);
+                metricsRegistry.counter("provider_dead_letter_total", "step", step).increment();
+                countSkip(e);
+                return false;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Splitting a chunk of " + items.size() + " items after " + e.getMessage());
+            }
+            int half = items.size() / 2;
+            bisect(new ArrayList<T>(items.subList(0, half)), step);
+            bisect(new ArrayList<T>(items.subList(half, items.size())), step);
+            return false;
+        }
+    }
+
+    /**
+     * Counts a dead letter as a write skip of the step. The step adds the whole chunk to its write count after the
+     * write, so the item is taken out of it here.
+     */
+    private void countSkip(Exception cause) {
+        StepContext context = StepSynchronizationManager.getContext();
+        if (context == null) {
+            return;
+        }
+        StepExecution stepExecution = context.getStepExecution();
+        int skips;
+        synchronized (stepExecution) {
+            stepExecution.setWriteSkipCount(stepExecution.getWriteSkipCount() + 1);
+            stepExecution.setWriteCount(stepExecution.getWriteCount() - 1);
+            skips = stepExecution.getSkipCount();
+        }
+        if (skips > skipLimit) {
+            throw new SkipLimitExceededException(skipLimit, cause);
+        }
+    }
+
+    private void writeInTransaction(final List<? extends T> items) throws Exception {
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    try {
+                        delegate.write(items);
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new WriteFailure(e);
+                    }
+                }
+            });
+        } catch (WriteFailure e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private boolean isSkippable(Throwable exception) {
+        //The persistence exceptions are usually wrapped (e.g. in a JpaSystemException)
+        for (Throwable cause = exception; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            for (Class<? extends Throwable> skippable : skippableExceptions) {
+                if (skippable.isInstance(cause)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String stepName() {
+        StepContext context = StepSynchronizationManager.getContext();
+        if (context == null) {
+            return "unknown";
+        }
+        //The partitions of a step (e.g. worker:partition3) are aggregated
+        String step = context.getStepName();
+        int separator = step.indexOf(':');
+        return separator < 0 ? step : step.substring(0, separator);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(delegate, "An ItemWriter as delegate must be set");
+        if (enabled) {
+            Assert.notNull(transactionManager, "A PlatformTransactionManager must be set");
+            Assert.notNull(deadLetterWriter, "A DeadLetterWriter must be set");
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        }
+    }
+
+    public void setDelegate(ItemWriter<? super T> delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public void setDeadLetterWriter(DeadLetterWriter deadLetterWriter) {
+        this.deadLetterWriter = deadLetterWriter;
+    }
+
+    public void setSkippableExceptions(List<Class<? extends Throwable>> skippableExceptions) {
+        this.skippableExceptions = skippableExceptions;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setSkipLimit(int skipLimit) {
+        this.skipLimit = skipLimit;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    //Checked exceptions of the delegate through the TransactionCallback
+    private static class WriteFailure extends RuntimeException {
+
+        private WriteFailure(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package uk.ac.ebi.pride.proteomes.pipeline.recovery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.ac.ebi.pride.proteomes.db.core.api.assay.Assay;
+import uk.ac.ebi.pride.proteomes.db.core.api.peptide.Peptiform;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Appends the items that could not be written to a dead-letter file, one JSON object per line with the step, the
+ * exception and the key of the item: sequence, taxid and representation for a peptiform (the generator can be rerun
+ * for its sequence), the accession for an assay, the toString of the item otherwise. E.g.
+ *
+ * {"time":"2014-03-20T10:15:02","step":"peptiformGeneratorClusterStep","type":"Peptiform","sequence":"PEPTIDE",
+ * "taxid":"9606","representation":"...","exception":"javax.persistence.PersistenceException","message":"..."}
+ *
+ * The items are rare, so the file is opened for every item and the concurrent steps can share the same instance.
+ * Without a file name the items are only logged.
+ */
+public class DeadLetterWriter {
+
+    private static final Log log = LogFactory.getLog(DeadLetterWriter.class);
+
+    private File file;
+
+    public synchronized void write(String step, Object item, Throwable exception) {
+        String record = toJson(fields(step, item, exception));
+        log.error("Dead letter: " + record);
+        if (file == null) {
+            return;
+        }
+
+        Writer out = null;
+        try {
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            out.write(record);
+            out.write('\n');
+        } catch (IOException e) {
+            log.error("The dead letter couldn't be written in " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn("Error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> fields(String step, Object item, Throwable exception) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("time", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+        fields.put("step", step);
+        fields.put("type", item == null ? null : item.getClass().getSimpleName());
+        if (item instanceof Peptiform) {
+            Peptiform peptiform = (Peptiform) item;
+            fields.put("sequence", peptiform.getSequence());
+            fields.put("taxid", String.valueOf(peptiform.getTaxid()));
+            fields.put("representation", peptiform.getPeptideRepresentation());
+        } else if (item instanceof Assay) {
+            fields.put("assay", ((Assay) item).getAssayAccession());
+        } else {
+            fields.put("item", String.valueOf(item));
+        }
+
+        //The root cause is the one that explains the failure (e.g. the constraint violated)
+        Throwable cause = exception;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        fields.put("exception", exception.getClass().getName());
+        fields.put("message", cause.getMessage());
+        return fields;
+    }
+
+    private static String toJson(Map<String, String> fields) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            quote(json, field.getKey());
+            json.append(':');
+            if (field.getValue() == null) {
+                json.append("null");
+            } else {
+                quote(json, field.getValue());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    public void setFileName(String fileName) {
+        this.file = fileName == null || fileName.trim().isEmpty() ? null : new File(fileName.trim());
+    }
+}
@@ -0,0 +1,358 @@
+package uk.ac.ebi.pride.proteomes.pipeline.validator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.validator.ValidationException;
+import org.springframework.batch.item.validator.Validator;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import uk.ac.ebi.pride.proteomes.pipeline.metrics.MetricsRegistry;
+
+import javax.persistence.Persistence;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.ValidatorFactory;
+import javax.validation.metadata.BeanDescriptor;
+import javax.validation.metadata.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Same rules and messages as the {@link BeanValidationValidator}, with the metadata of the constraints looked up once
+ * per type (the entity types of the job are loaded when the validator is created). Every constrained property is
+ * validated on its own and the cascaded properties (e.g. the assays and clusters of a peptiform) are walked here, so an
+ * element that has already passed the validation in the same step is not validated again: with the canonical assays
+ * and clusters of the generator a popular peptide doesn't revalidate thousands of them. The elements that fail are
+ * never remembered, so every item that refers to them fails as with the full validation.
+ *
+ * As with the traversable resolver of the standard validator in a JPA environment, the cascaded properties that are
+ * not loaded (e.g. the lazy collections of a detached entity) are not validated, and they are not read.
+ *
+ * The types with class level constraints are validated by the standard validator. The validated elements are kept per
+ * thread and step execution (so the partitions don't share them), at most maxValidatedElements of them. It has to be
+ * registered as a listener of the steps that use it: the elements of all the threads (e.g. the pooled threads of the
+ * async enricher) are released when the step ends.
+ */
+public class FastBeanValidationValidator<T> implements Validator<T>, StepExecutionListener, InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(FastBeanValidationValidator.class);
+
+    private static final MetricsRegistry.Counter SKIPPED_ELEMENTS =
+            MetricsRegistry.getInstance().counter("provider_validation_cascades_total", "result", "skipped");
+
+    private static final MetricsRegistry.Counter VALIDATED_ELEMENTS =
+            MetricsRegistry.getInstance().counter("provider_validation_cascades_total", "result", "validated");
+
+    private static final String DELIMITER = ", ";
+
+    private static final boolean JPA_PRESENT =
+            ClassUtils.isPresent("javax.persistence.Persistence", FastBeanValidationValidator.class.getClassLoader());
+
+    private ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
+
+    private javax.validation.Validator validator = factory.getValidator();
+
+    private final ConcurrentMap<Class<?>, TypeMetadata> metadata = new ConcurrentHashMap<Class<?>, TypeMetadata>();
+
+    private List<Class<?>> types = Collections.emptyList();
+
+    private boolean skipValidatedElements = true;
+
+    private int maxValidatedElements = 100000;
+
+    private final ThreadLocal<ValidatedElements> validatedElements = new ThreadLocal<ValidatedElements>();
+
+    //Validated elements of every thread by step execution, to release them when the step ends
+    private final ConcurrentMap<Long, List<ValidatedElements>> stepValidatedElements =
+            new ConcurrentHashMap<Long, List<ValidatedElements>>();
+
+    public void validate(T value) throws ValidationException {
+        String violations = violations(value);
+        if (violations != null) {
+            throw new ValidationException("Validation failed for " + value + ": " + violations);
+        }
+    }
+
+    /**
+     * @return the violations of the bean and its cascaded properties or null if it is valid
+     */
+    private String violations(Object value) {
+        StringBuilder builder = new StringBuilder();
+        collect(value, "", builder, new IdentityHashMap<Object, Boolean>(), currentValidatedElements());
+        if (builder.length() == 0) {
+            return null;
+        }
+        return builder.substring(0, builder.length() - DELIMITER.length());
+    }
+
+    /**
+     * @return true if the bean is valid
+     */
+    private boolean collect(Object bean, String path, StringBuilder violations, Map<Object, Boolean> visiting,
+                            ValidatedElements validated) {
+        //Cycles (e.g. bidirectional relations) are visited once, as the standard validator does
+        if (visiting.put(bean, Boolean.TRUE) != null) {
+            return true;
+        }
+
+        TypeMetadata type = metadata(bean.getClass());
+        if (type.classConstraints) {
+            return append(validator.validate(bean), path, violations);
+        }
+
+        boolean valid = true;
+        for (String property : type.properties) {
+            valid &= append(validator.validateProperty(bean, property), path, violations);
+        }
+
+        for (Cascade cascade : type.cascades) {
+            if (!isLoaded(bean, cascade.name)) {
+                continue;
+            }
+            Object value = cascade.get(bean);
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                for (int i = 0; i < list.size(); i++) {
+                    valid &= cascade(list.get(i), path + cascade.name + "[" + i + "].", violations, visiting, validated);
+                }
+            } else if (value instanceof Iterable) {
+                String elementPath = path + cascade.name + "[].";
+                for (Object element : (Iterable<?>) value) {
+                    valid &= cascade(element, elementPath, violations, visiting, validated);
+                }
+            } else if (value instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    valid &= cascade(entry.getValue(), path + cascade.name + "[" + entry.getKey() + "].", violations, visiting, validated);
+                }
+            } else if (value instanceof Object[]) {
+                Object[] array = (Object[]) value;
+                for (int i = 0; i < array.length; i++) {
+                    valid &= cascade(array[i], path + cascade.name + "[" + i + "].", violations, visiting, validated);
+                }
+            } else {
+                valid &= cascade(value, path + cascade.name + ".", violations, visiting, validated);
+            }
+        }
+        return valid;
+    }
+
+    //Same check as the JPA traversable resolver of Hibernate Validator, without initializing the property
+    private static boolean isLoaded(Object bean, String property) {
+        return !JPA_PRESENT || Persistence.getPersistenceUtil().isLoaded(bean, property);
+    }
+
+    private boolean cascade(Object element, String path, StringBuilder violations, Map<Object, Boolean> visiting,
+                            ValidatedElements validated) {
+        if (element == null) {
+            return true;
+        }
+        if (validated != null && validated.contains(element)) {
+            SKIPPED_ELEMENTS.increment();
+            return true;
+        }
+        VALIDATED_ELEMENTS.increment();
+        boolean valid = collect(element, path, violations, visiting, validated);
+        if (valid && validated != null) {
+            validated.add(element);
+        }
+        return valid;
+    }
+
+    private static boolean append(Set<? extends ConstraintViolation<?>> found, String path, StringBuilder violations) {
+        for (ConstraintViolation<?> violation : found) {
+            violations.append(path)
+                    .append(violation.getPropertyPath())
+                    .append(" ")
+                    .append(violation.getMessage())
+                    .append(DELIMITER);
+        }
+        return found.isEmpty();
+    }
+
+    private TypeMetadata metadata(Class<?> type) {
+        TypeMetadata typeMetadata = metadata.get(type);
+        if (typeMetadata == null) {
+            typeMetadata = new TypeMetadata(type, validator.getConstraintsForClass(type));
+            metadata.putIfAbsent(type, typeMetadata);
+        }
+        return typeMetadata;
+    }
+
+    private ValidatedElements currentValidatedElements() {
+        if (!skipValidatedElements) {
+            return null;
+        }
+        //Outside of a step every item is validated in full
+        StepContext context = StepSynchronizationManager.getContext();
+        if (context == null) {
+            return null;
+        }
+        Long stepExecutionId = context.getStepExecution().getId();
+        ValidatedElements elements = validatedElements.get();
+        if (elements == null || !elements.belongsTo(stepExecutionId)) {
+            elements = new ValidatedElements(stepExecutionId, maxValidatedElements);
+            validatedElements.set(elements);
+            if (stepExecutionId != null) {
+                List<ValidatedElements> registered = stepValidatedElements.get(stepExecutionId);
+                if (registered == null) {
+                    stepValidatedElements.putIfAbsent(stepExecutionId, new CopyOnWriteArrayList<ValidatedElements>());
+                    registered = stepValidatedElements.get(stepExecutionId);
+                }
+                registered.add(elements);
+            }
+        }
+        return elements;
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+    }
+
+    /**
+     * Releases the elements validated by every thread in the step, the idle threads of a pool would keep them otherwise
+     */
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (stepExecution.getId() != null) {
+            List<ValidatedElements> registered = stepValidatedElements.remove(stepExecution.getId());
+            if (registered != null) {
+                for (ValidatedElements elements : registered) {
+                    elements.release();
+                }
+            }
+        }
+        validatedElements.remove();
+        return null;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        for (Class<?> type : types) {
+            TypeMetadata typeMetadata = metadata(type);
+            log.info("Validation of " + type.getSimpleName() + ": " + typeMetadata.properties.size()
+                    + " constrained properties, " + typeMetadata.cascades.size() + " cascaded"
+                    + (typeMetadata.classConstraints ? ", class constraints" : ""));
+        }
+    }
+
+    public void destroy() throws Exception {
+        factory.close();
+    }
+
+    public void setTypes(List<Class<?>> types) {
+        this.types = types;
+    }
+
+    public void setSkipValidatedElements(boolean skipValidatedElements) {
+        this.skipValidatedElements = skipValidatedElements;
+    }
+
+    public void setMaxValidatedElements(int maxValidatedElements) {
+        this.maxValidatedElements = maxValidatedElements;
+    }
+
+    /**
+     * Constrained and cascaded properties of a type
+     */
+    private static class TypeMetadata {
+
+        private final boolean classConstraints;
+        private final List<String> properties = new ArrayList<String>();
+        private final List<Cascade> cascades = new ArrayList<Cascade>();
+
+        private TypeMetadata(Class<?> type, BeanDescriptor descriptor) {
+            classConstraints = !descriptor.getConstraintDescriptors().isEmpty();
+            for (PropertyDescriptor property : descriptor.getConstrainedProperties()) {
+                if (!property.getConstraintDescriptors().isEmpty()) {
+                    properties.add(property.getPropertyName());
+                }
+                if (property.isCascaded()) {
+                    cascades.add(new Cascade(type, property.getPropertyName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Cascaded property, read with its getter or its field
+     */
+    private static class Cascade {
+
+        private final String name;
+        private final Method getter;
+        private final Field field;
+
+        private Cascade(Class<?> type, String name) {
+            this.name = name;
+            String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            Method method = ReflectionUtils.findMethod(type, "get" + suffix);
+            if (method == null) {
+                method = ReflectionUtils.findMethod(type, "is" + suffix);
+            }
+            this.getter = method;
+            this.field = method == null ? ReflectionUtils.findField(type, name) : null;
+            if (getter != null) {
+                ReflectionUtils.makeAccessible(getter);
+            } else if (field != null) {
+                ReflectionUtils.makeAccessible(field);
+            } else {
+                throw new IllegalStateException("No getter or field for the cascaded property " + name + " of " + type.getName());
+            }
+        }
+
+        private Object get(Object bean) {
+            return getter != null ? ReflectionUtils.invokeMethod(getter, bean) : ReflectionUtils.getField(field, bean);
+        }
+    }
+
+    /**
+     * Elements that passed the validation in a step execution (compared by identity)
+     */
+    private static class ValidatedElements {
+
+        private final Long stepExecutionId;
+        private final int maxSize;
+        private final Map<Object, Boolean> elements = new IdentityHashMap<Object, Boolean>();
+
+        private ValidatedElements(Long stepExecutionId, int maxSize) {
+            this.stepExecutionId = stepExecutionId;
+            this.maxSize = maxSize;
+        }
+
+        private boolean belongsTo(Long stepExecutionId) {
+            return this.stepExecutionId == null ? stepExecutionId == null : this.stepExecutionId.equals(stepExecutionId);
+        }
+
+        private boolean contains(Object element) {
+            return elements.containsKey(element);
+        }
+
+        private void add(Object element) {
+            if (elements.size() >= maxSize) {
+                elements.clear();
+            }
+            elements.put(element, Boolean.TRUE);
+        }
+
+        //The step has ended, its threads don't use them anymore
+        private void release() {
+            elements.clear();
+        }
+    }
+}